@@ -47,36 +47,30 @@ public class Aggregate extends Operator {
         // variables for our td and building our td
         Type[] typeAr;
         String[] fieldAr;
+        Type afieldType = child.getTupleDesc().getFieldType(afield);
+        Type aggType = aggregateType(afieldType, aop);
         if(gfield == -1){
             fieldAr = new String[]{child.getTupleDesc().getFieldName(afield)};
-            typeAr = new Type[]{Type.INT_TYPE};
+            typeAr = new Type[]{aggType};
         }
         else{
             Type groupType = child.getTupleDesc().getFieldType(gfield);
             String groupField = child.getTupleDesc().getFieldName(gfield);
-            typeAr = new Type[]{groupType, Type.INT_TYPE};
+            typeAr = new Type[]{groupType, aggType};
             fieldAr = new String[]{groupField, child.getTupleDesc().getFieldName(afield)};
         }
         td = new TupleDesc(typeAr,fieldAr);
 
-        if(gfield == -1){
-            // create our aggregator
-            if(child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE){
-                aggregator = new IntegerAggregator(gfield,null,afield,aop);
-            }
-            else{
-                aggregator = new StringAggregator(gfield,null,afield,aop);
-            }
+        // create our aggregator
+        Type groupType = gfield == -1 ? null : td.getFieldType(0);
+        if(afieldType == Type.INT_TYPE){
+            aggregator = new IntegerAggregator(gfield,groupType,afield,aop);
+        }
+        else if(afieldType == Type.STRING_TYPE){
+            aggregator = new StringAggregator(gfield,groupType,afield,aop);
         }
-
         else{
-            // create our aggregator
-            if(child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE){
-                aggregator = new IntegerAggregator(gfield,td.getFieldType(gfield),afield,aop);
-            }
-            else{
-                aggregator = new StringAggregator(gfield,td.getFieldType(gfield),afield,aop);
-            }
+            aggregator = new NumericAggregator(gfield,groupType,afield,afieldType,aop);
         }
 
     }
@@ -133,6 +127,18 @@ public class Aggregate extends Operator {
         return aop;
     }
 
+    /**
+     * @return the type of the values computed by aggregating a field of type
+     *         fieldType with op: COUNT is always an int, and the other
+     *         aggregates of a long or double field are longs or doubles
+     */
+    public static Type aggregateType(Type fieldType, Aggregator.Op op) {
+        if(op != Aggregator.Op.COUNT && (fieldType == Type.LONG_TYPE || fieldType == Type.DOUBLE_TYPE)){
+            return fieldType;
+        }
+        return Type.INT_TYPE;
+    }
+
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
         return aop.toString();
     }
@@ -5,8 +5,20 @@ import org.apache.mina.util.ConcurrentHashSet;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -16,20 +28,156 @@ import java.util.concurrent.TimeUnit;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The pool is safe to use from many threads. Pages live in a fixed array
+ * of frames, and a ConcurrentHashMap maps each cached PageId to its frame,
+ * so getPage hits only tell the {@link ReplacementPolicy} about the access.
+ * Each miss evicts exactly one page, chosen by the policy. A thread claims
+ * a frame with a compare-and-set on the frame alone, and the disk read for
+ * a miss is done before a frame is claimed.
+ * <p>
+ * The policy is named when the pool is created, or else by the
+ * <tt>simpledb.replacement</tt> system property; see {@link #newPolicy}.
+ * The default, CLOCK, takes no locks at all. 2Q resists being flushed by
+ * large scans, at the cost of a lock per access.
+ * <p>
+ * Scans of tables larger than a fraction of the pool (see
+ * {@link #isBulkRead}) can go further and read through a
+ * {@link BulkReadRing}, a small private set of frames that the scan
+ * recycles instead of competing with other work for the shared frames.
+ * <p>
+ * Commits don't write data pages. {@link #transactionComplete} logs the
+ * pages a committing transaction dirtied and hands their images to a
+ * {@link PageWriter}, whose thread writes them in page order once they
+ * pass a fraction of the pool (see {@link #setDirtyRatio}). Pool users
+ * should {@link #close} a pool they are done with, so its pages reach
+ * disk.
  */
 public class BufferPool {
 
     // private global variables. _numpages is dicated when object is created
     private int _numPages;
-    private HashMap<PageId, Page> _bufferPool;
-    private LinkedList<PageId> _linkedList;
+    // the frames pages are cached in
+    private final Frame[] _frames;
+    // the frame of every cached page
+    private final ConcurrentHashMap<PageId, Frame> _pageTable;
+    // chooses the frames to evict from
+    private final ReplacementPolicy _policy;
+    // frames that hold no page and that the policy doesn't track; their
+    // busy flags are held
+    private final ConcurrentLinkedQueue<Frame> _free = new ConcurrentLinkedQueue<Frame>();
+    // tries to evict the page in a frame for the policy
+    private final ReplacementPolicy.EvictionTest _evictionTest = new ReplacementPolicy.EvictionTest() {
+        public boolean tryEvict(int frame) {
+            return claim(_frames[frame], null);
+        }
+    };
+    // records every getPage if set
+    private volatile PageTrace _trace;
+    // frames outside _frames, holding pages added when every frame held a
+    // dirty page; see claimFrame
+    private final ConcurrentLinkedQueue<Frame> _overflow = new ConcurrentLinkedQueue<Frame>();
 
     private LockManager lockManager = new LockManager();
 
+    // pages being read ahead and not yet in the pool
+    private final ConcurrentHashMap<PageId, Future<Page>> _pending = new ConcurrentHashMap<PageId, Future<Page>>();
+    // the number of entries of _pending for each table
+    private final ConcurrentHashMap<Integer, AtomicInteger> _pendingPerFile =
+            new ConcurrentHashMap<Integer, AtomicInteger>();
+    private volatile int readAheadDepth = DEFAULT_READ_AHEAD;
+    private final AtomicLong prefetchHits = new AtomicLong();
+    private final AtomicLong prefetchMisses = new AtomicLong();
+
+    // writes the pages of committed transactions
+    private final PageWriter _writer;
+    // held shared by a commit from its first log record until its pages
+    // are staged, and exclusively by the page writer while it truncates
+    // the log; fair, so that a steady stream of commits can't hold off
+    // the writer
+    private final ReentrantReadWriteLock _commitLatch = new ReentrantReadWriteLock(true);
+    // the pages logPages logged for each transaction that hasn't completed
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> _logged =
+            new ConcurrentHashMap<TransactionId, Set<PageId>>();
+
+    /**
+     * A slot for one cached page. A frame's page is only replaced by the
+     * thread that holds its busy flag; getPage hits read it without it.
+     */
+    private static final class Frame {
+        // the frame's number for the policy, or -1 for an overflow frame
+        final int index;
+        // the cached page, or null if the frame is free
+        volatile Page page;
+        // set while the page was read ahead and no getPage has asked for it
+        volatile boolean prefetched;
+        // the ring that owns the frame, if it is out of the policy's hands
+        volatile BulkReadRing ring;
+        // held while a thread evicts the frame's page or fills the frame
+        final AtomicBoolean busy = new AtomicBoolean();
+
+        Frame(int index) {
+            this.index = index;
+        }
+    }
+
+    /** Names of the replacement policies {@link #newPolicy} knows. */
+    public static final String[] REPLACEMENT_POLICIES = {"clock", "lru", "2q"};
+
+    /** Policy used when neither the constructor nor the system property names one. */
+    public static final String DEFAULT_REPLACEMENT_POLICY = "clock";
+
+    /** Default number of frames in a bulk-read ring. */
+    public static final int DEFAULT_RING_SIZE = 16;
+
+    /**
+     * Default fraction of the pool a table must be larger than for scans
+     * of it to read through a ring.
+     */
+    public static final double DEFAULT_BULK_READ_THRESHOLD = 0.25;
+
+    /**
+     * Default fraction of the pool that committed, unwritten pages may
+     * reach before the page writer wakes up.
+     */
+    public static final double DEFAULT_DIRTY_RATIO = 0.1;
+
+    private volatile int ringSize = DEFAULT_RING_SIZE;
+    private volatile double bulkReadThreshold = DEFAULT_BULK_READ_THRESHOLD;
+    // frames currently owned by rings
+    private final AtomicInteger ringFrames = new AtomicInteger();
+    // pages evicted by rings to make room for the next page of their scan
+    private final AtomicLong ringRecycles = new AtomicLong();
+
+    /** Default number of pages a sequential scan reads ahead. */
+    public static final int DEFAULT_READ_AHEAD = 8;
+
+    /** Number of threads issuing read-ahead I/O, shared by all pools. */
+    public static final int READ_AHEAD_THREADS = 2;
+
+    /**
+     * Most pages of one file that may be being read ahead at once; further
+     * pages aren't read ahead until some of these have landed.
+     */
+    public static final int MAX_READ_AHEAD_PER_FILE = 32;
+
+    private static ExecutorService ioExecutor;
+
     int timeOut = 0;
 
-    /** Bytes per page, including header. */
-    public static final int PAGE_SIZE = 4096;
+    /** Default bytes per page, including header. */
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+
+    /**
+     * Bytes per page in the default configuration.
+     * @deprecated use {@link #getPageSize()}, which reflects the page size
+     * the database was created with.
+     */
+    @Deprecated
+    public static final int PAGE_SIZE = DEFAULT_PAGE_SIZE;
+
+    // page size given to tables that don't specify their own
+    private static volatile int pageSize = DEFAULT_PAGE_SIZE;
 
     /** Default number of pages passed to the constructor. This is used by
      other classes. BufferPool should use the numPages argument to the
@@ -37,18 +185,80 @@ public class BufferPool {
     public static final int DEFAULT_PAGES = 50;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, with the
+     * replacement policy named by the <tt>simpledb.replacement</tt> system
+     * property, or CLOCK if it isn't set.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, System.getProperty("simpledb.replacement", DEFAULT_REPLACEMENT_POLICY));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy, as named by {@link #newPolicy}
+     */
+    public BufferPool(int numPages, String policy) {
         _numPages = numPages;
         //create a new bufferpool on memory _numPages long
-        _bufferPool = new HashMap<PageId, Page>();
-        _linkedList = new LinkedList<PageId>();
+        _policy = newPolicy(policy, numPages);
+        _frames = new Frame[numPages];
+        for (int i = 0; i < numPages; i++) {
+            _frames[i] = new Frame(i);
+            _frames[i].busy.set(true);
+            _free.add(_frames[i]);
+        }
+        _pageTable = new ConcurrentHashMap<PageId, Frame>(numPages * 2, 0.75f, 16);
+        _writer = new PageWriter(numPages, DEFAULT_DIRTY_RATIO, _commitLatch.writeLock());
+    }
 
+    /**
+     * Creates a replacement policy for a pool of the specified number of
+     * frames.
+     *
+     * @param name <tt>clock</tt> ({@link ClockPolicy}), <tt>lru</tt>
+     *     ({@link LruPolicy}) or <tt>2q</tt> ({@link TwoQueuePolicy});
+     *     case doesn't matter
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static ReplacementPolicy newPolicy(String name, int numFrames) {
+        String n = name.trim().toLowerCase();
+        if (n.equals("clock"))
+            return new ClockPolicy(numFrames);
+        if (n.equals("lru"))
+            return new LruPolicy(numFrames);
+        if (n.equals("2q"))
+            return new TwoQueuePolicy(numFrames);
+        throw new IllegalArgumentException("unknown replacement policy " + name);
+    }
 
+    /**
+     * Starts recording every page getPage is asked for in trace, or stops
+     * recording if trace is null.
+     */
+    public void setTrace(PageTrace trace) {
+        _trace = trace;
+    }
 
+    /** @return the cached page pid, or null; tells the policy it was used */
+    private Page lookup(PageId pid) {
+        Frame f = _pageTable.get(pid);
+        if (f == null)
+            return null;
+        Page p = f.page;
+        // the frame may have been given to another page since the lookup
+        if (p == null || !p.getId().equals(pid))
+            return null;
+        if (f.index >= 0 && f.ring == null)
+            _policy.pageAccessed(f.index);
+        if (f.prefetched) {
+            f.prefetched = false;
+            prefetchHits.incrementAndGet();
+        }
+        return p;
     }
 
     /**
@@ -68,38 +278,542 @@ public class BufferPool {
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException, IOException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieves the specified page like {@link #getPage(TransactionId,
+     * PageId, Permissions)}, but if it isn't cached, reads it into a frame
+     * of the specified ring rather than one of the shared frames.
+     *
+     * @param ring the scan's ring, or null to use the shared frames
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BulkReadRing ring)
+            throws TransactionAbortedException, DbException, IOException {
 
         if(tid == null){
             tid = new TransactionId();
         }
         lockManager.getLock(tid, pid, perm);
+        PageTrace trace = _trace;
+        if (trace != null)
+            trace.record(pid);
 
         // look in bufferpool to see if page is present
-        if(!_bufferPool.containsKey(pid)){
-            // if page is not present but bufferpool is full
-            if(_bufferPool.size() >= _numPages) {
-                evictPage();
+        Page p = lookup(pid);
+        if (p != null)
+            return p;
+        Future<Page> pending = _pending.remove(pid);
+        if (pending != null)
+            prefetchHits.incrementAndGet();
+        else
+            prefetchMisses.incrementAndGet();
+
+        // read the page before claiming a frame, so other pages can be
+        // served while this one is on its way
+        if (pending != null) {
+            try {
+                p = pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // fall through and read it ourselves
             }
-            // add page to bufferpool
-            _bufferPool.put(pid, Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid));
-        } else {
-            // remove the pid from the linked list
-            _linkedList.remove(pid);
         }
-        //add the pid to the top of the linked list again
-        _linkedList.add(pid);
+        if (p == null)
+            p = readPage(pid);
+
+        Frame f = ring != null ? ring.claim() : null;
+        if (f == null)
+            f = claimFrame(true);
+        return install(p, f, false);
+    }
+
+    /**
+     * Caches a page that a file has just added for tid, under tid's
+     * exclusive lock and marked dirty by tid, so that it is logged and
+     * written when tid commits and dropped if it aborts. The file must
+     * already have allocated the page.
+     */
+    void addNewPage(TransactionId tid, Page p)
+            throws TransactionAbortedException, DbException {
+        lockManager.getLock(tid, p.getId(), Permissions.READ_WRITE);
+        p.markDirty(true, tid);
+        // drop any empty copy someone read before we had the lock
+        while (install(p, claimFrame(true), false) != p)
+            discardPage(p.getId());
+    }
+
+    /**
+     * Reads a page that isn't cached: the committed image the page writer
+     * holds, if there is one, and otherwise the page on disk.
+     */
+    private Page readPage(PageId pid) throws IOException {
+        Page p = _writer.get(pid);
+        if (p != null)
+            return p;
+        return Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
+    }
+
+    /**
+     * Puts p in the frame f, which the caller has claimed, and maps its
+     * PageId to it.
+     * @return p, or the copy of the page another thread cached first, in
+     *   which case f is freed again
+     */
+    private Page install(Page p, Frame f, boolean prefetched) {
+        PageId pid = p.getId();
+        f.page = p;
+        f.prefetched = prefetched;
+        Frame prior = _pageTable.putIfAbsent(pid, f);
+        while (prior != null) {
+            Page cached = prior.page;
+            if (cached != null && cached.getId().equals(pid)) {
+                // someone else read it in the meantime
+                free(f);
+                if (prior.index >= 0 && prior.ring == null)
+                    _policy.pageAccessed(prior.index);
+                return cached;
+            }
+            // a stale mapping to a frame that has moved on
+            if (_pageTable.replace(pid, prior, f))
+                break;
+            prior = _pageTable.putIfAbsent(pid, f);
+        }
+        if (f.index >= 0 && f.ring == null)
+            _policy.pageLoaded(f.index, pid);
+        f.busy.set(false);
+        return p;
+    }
+
+    /** Empties a claimed frame and gives it back. */
+    private void free(Frame f) {
+        f.page = null;
+        f.prefetched = false;
+        if (f.ring != null)
+            f.busy.set(false); // stays in its ring
+        else if (f.index >= 0)
+            _free.add(f);
+        else
+            _overflow.remove(f);
+    }
+
+    /**
+     * Claims a frame for a new page: a free one if there is one, and
+     * otherwise the frame of a page the replacement policy chooses to
+     * evict. Only clean pages can be evicted; see {@link #evict}.
+     * <p>
+     * If the policy finds nothing, every page is dirty or write-locked.
+     * Pages dirtied by a running transaction can't be written out, so the
+     * pool then grows past its size, as it always has, with an overflow
+     * frame that is dropped once the page in it is clean again (see
+     * {@link #trimOverflow}).
+     *
+     * @param overflow whether to return an overflow frame, rather than
+     *     null, if no frame can be claimed
+     * @return the claimed frame, which is empty and whose busy flag the
+     *     caller holds
+     */
+    private Frame claimFrame(boolean overflow) {
+        Frame f = _free.poll();
+        if (f != null)
+            return f;
+        int victim = _policy.chooseVictim(_evictionTest);
+        if (victim >= 0)
+            return _frames[victim];
+        if (!overflow)
+            return null;
+        f = new Frame(-1);
+        f.busy.set(true);
+        _overflow.add(f);
+        return f;
+    }
+
+    /**
+     * Takes the busy flag of f and evicts its page, if it has one that can
+     * be evicted. f must belong to the specified ring, or to the shared
+     * frames if ring is null.
+     * @return true if f is now empty and the caller's
+     */
+    private boolean claim(Frame f, BulkReadRing ring) {
+        if (!f.busy.compareAndSet(false, true))
+            return false;
+        if (f.ring != ring) {
+            // CLOCK sweeps every frame, including those rings own
+            f.busy.set(false);
+            return false;
+        }
+        Page p = f.page;
+        if (p == null || evict(f, p)) {
+            f.page = null;
+            f.prefetched = false;
+            return true;
+        }
+        f.busy.set(false);
+        return false;
+    }
+
+    /**
+     * Removes the page p in frame f from the page table if it is clean and
+     * not write-locked by a transaction, whose writer may be about to dirty
+     * it.
+     * @return true if f can be reused
+     */
+    private boolean evict(Frame f, Page p) {
+        PageId pid = p.getId();
+        if (_pageTable.get(pid) != f)
+            return true; // discarded already
+        if (p.isDirty() != null || lockManager.isWriteLocked(pid))
+            return false;
+        if (!_pageTable.remove(pid, f))
+            return true;
+        // a writer that took its lock and found the page before it was
+        // removed would be left writing a page the pool no longer has
+        if (lockManager.isWriteLocked(pid) || p.isDirty() != null) {
+            _pageTable.putIfAbsent(pid, f);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Drops the pages in overflow frames that are clean again, so that the
+     * pool shrinks back to its size once the transactions that dirtied
+     * them complete.
+     */
+    private void trimOverflow() {
+        for (Frame f : _overflow) {
+            if (!f.busy.compareAndSet(false, true))
+                continue;
+            Page p = f.page;
+            if (p == null || evict(f, p))
+                free(f);
+            else
+                f.busy.set(false);
+        }
+    }
+
+    /**
+     * Starts reading the specified pages into the buffer pool in the
+     * background, so that a later {@link #getPage} for them doesn't have to
+     * wait for the disk. Pages already cached or being read are skipped.
+     * No locks are taken; getPage still acquires them as usual.
+     * <p>
+     * A page that has been read lands in the pool if a frame can be
+     * claimed for it, and is dropped otherwise. At most
+     * {@link #MAX_READ_AHEAD_PER_FILE} pages of a file are read ahead at a
+     * time; the rest of the list is skipped once a file reaches it.
+     *
+     * @param pids the pages to read
+     */
+    public void prefetchPages(List<PageId> pids) {
+        prefetchPages(pids, null);
+    }
+
+    /**
+     * Starts reading the specified pages like {@link #prefetchPages(List)},
+     * into frames of the specified ring.
+     *
+     * @param ring the ring of the scan the pages are read ahead for, or
+     *     null to use the shared frames
+     */
+    public void prefetchPages(List<PageId> pids, final BulkReadRing ring) {
+        for (final PageId pid : pids) {
+            if (_pageTable.containsKey(pid) || _pending.containsKey(pid))
+                continue;
+            final AtomicInteger inFlight = pendingCount(pid.getTableId());
+            if (inFlight.get() >= MAX_READ_AHEAD_PER_FILE)
+                break;
+            FutureTask<Page> task = new FutureTask<Page>(new Callable<Page>() {
+                public Page call() throws Exception {
+                    return readPage(pid);
+                }
+            }) {
+                protected void done() {
+                    try {
+                        prefetched(pid, this, ring);
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                }
+            };
+            if (_pending.putIfAbsent(pid, task) == null) {
+                inFlight.incrementAndGet();
+                getIoExecutor().execute(task);
+            }
+        }
+    }
+
+    /** @return the counter of pages of the specified table being read ahead */
+    private AtomicInteger pendingCount(int tableId) {
+        AtomicInteger count = _pendingPerFile.get(tableId);
+        if (count == null) {
+            AtomicInteger prior = _pendingPerFile.putIfAbsent(tableId, count = new AtomicInteger());
+            if (prior != null)
+                count = prior;
+        }
+        return count;
+    }
+
+    /**
+     * Moves a page that has been read ahead into the pool, unless getPage
+     * has claimed it already. If no frame can be claimed for it (every
+     * frame holds a dirty page, or every frame of the ring holds a page
+     * read ahead that the scan hasn't reached yet), the page is dropped,
+     * and getPage reads it again when it gets there. Either way the page
+     * is no longer pending afterwards.
+     */
+    private void prefetched(PageId pid, Future<Page> future, BulkReadRing ring) {
+        Page p;
+        try {
+            p = future.get();
+        } catch (Exception e) {
+            // getPage will read it itself
+            _pending.remove(pid, future);
+            return;
+        }
+        if (_pending.get(pid) != future)
+            return;
+        Frame f = ring != null ? ring.claim() : claimFrame(false);
+        if (f == null) {
+            _pending.remove(pid, future);
+            return;
+        }
+        if (!_pending.remove(pid, future)) {
+            // getPage took it while we were claiming the frame
+            free(f);
+            return;
+        }
+        install(p, f, true);
+    }
+
+    private static synchronized ExecutorService getIoExecutor() {
+        if (ioExecutor == null) {
+            ioExecutor = Executors.newFixedThreadPool(READ_AHEAD_THREADS, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-read-ahead");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return ioExecutor;
+    }
+
+    /**
+     * @return the number of pages a sequential scan reads ahead of its
+     *   position; 0 means read-ahead is off
+     */
+    public int getReadAheadDepth() {
+        return readAheadDepth;
+    }
 
-        //if (perm == Permissions.READ_ONLY)
-        //    removeFromShared(pid, tid);
-        return _bufferPool.get(pid);
+    /**
+     * Sets the number of pages a sequential scan reads ahead of its
+     * position; 0 turns read-ahead off.
+     */
+    public void setReadAheadDepth(int depth) {
+        if (depth < 0)
+            throw new IllegalArgumentException("invalid read-ahead depth " + depth);
+        readAheadDepth = depth;
     }
 
+    /**
+     * @return the number of getPage calls that found their page already
+     *   read ahead, or being read ahead
+     */
+    public long getPrefetchHits() {
+        return prefetchHits.get();
+    }
 
+    /**
+     * @return the number of getPage calls that had to read their page from
+     *   disk themselves
+     */
+    public long getPrefetchMisses() {
+        return prefetchMisses.get();
+    }
+
+    /**
+     * @return true if scans of a table of the specified number of pages
+     *   should read through a {@link BulkReadRing}: if the table is larger
+     *   than the bulk-read threshold's fraction of the pool, and the pool
+     *   is big enough to spare a ring
+     */
+    public boolean isBulkRead(int tablePages) {
+        return tablePages > bulkReadThreshold * _numPages && ringCapacity() > 1;
+    }
 
+    /**
+     * Sets the fraction of the pool a table must be larger than for scans
+     * of it to read through a ring; 1 or more turns rings off for tables
+     * that fit in the pool.
+     */
+    public void setBulkReadThreshold(double fraction) {
+        if (!(fraction >= 0))
+            throw new IllegalArgumentException("invalid bulk-read threshold " + fraction);
+        bulkReadThreshold = fraction;
+    }
 
-    //returns bufferpage size
-    public int getPageSize(){
-        return PAGE_SIZE;
+    /** @return the fraction of the pool set by {@link #setBulkReadThreshold} */
+    public double getBulkReadThreshold() {
+        return bulkReadThreshold;
+    }
+
+    /**
+     * Sets the number of frames in the rings of scans started from now on.
+     * A ring never takes more than a quarter of the pool.
+     */
+    public void setRingSize(int frames) {
+        if (frames < 1)
+            throw new IllegalArgumentException("invalid ring size " + frames);
+        ringSize = frames;
+    }
+
+    /** @return the ring size set by {@link #setRingSize} */
+    public int getRingSize() {
+        return ringSize;
+    }
+
+    private int ringCapacity() {
+        return Math.min(ringSize, _numPages / 4);
+    }
+
+    /**
+     * @return a new ring for a large scan, which the scan must
+     *   {@link BulkReadRing#close close} when it is done with it
+     */
+    public BulkReadRing newBulkReadRing() {
+        return new BulkReadRing(Math.max(1, ringCapacity()));
+    }
+
+    /** @return the number of frames that rings currently hold */
+    public int getRingFrames() {
+        return ringFrames.get();
+    }
+
+    /**
+     * @return the number of pages rings have evicted to reuse their frames
+     *   for the next page of their scan
+     */
+    public long getRingRecycles() {
+        return ringRecycles.get();
+    }
+
+    /**
+     * A small set of frames private to one large scan, like PostgreSQL's
+     * BAS_BULKREAD buffer access strategy. The ring takes shared frames
+     * until it holds its size, and after that reads each page the scan
+     * misses into the ring's frame that has gone longest without a new
+     * page, evicting the page there. A big scan then only ever occupies
+     * the ring's frames, and leaves the pages other work uses cached.
+     * <p>
+     * Pages in a ring are cached like any other: other transactions find
+     * them, and a page that was already cached is used where it is. A
+     * ring frame whose page has been dirtied or write-locked can't be
+     * reused, and is handed back to the shared pool. When the scan closes
+     * the ring, its frames and the pages in them go back to the shared
+     * pool too.
+     */
+    public final class BulkReadRing {
+        private final Frame[] frames;
+        private int size = 0;
+        // the frame to reuse next
+        private int next = 0;
+        private boolean closed = false;
+
+        private BulkReadRing(int capacity) {
+            frames = new Frame[capacity];
+        }
+
+        /**
+         * @return a claimed, empty frame of this ring, or null if the ring
+         *   can't provide one and the caller should use a shared frame
+         */
+        private synchronized Frame claim() {
+            if (closed)
+                return null;
+            if (size < frames.length) {
+                Frame f = claimFrame(false);
+                if (f != null) {
+                    f.ring = this;
+                    frames[size++] = f;
+                    ringFrames.incrementAndGet();
+                    return f;
+                }
+            }
+            for (int tries = size; tries > 0 && size > 0; tries--) {
+                if (next >= size)
+                    next = 0;
+                Frame f = frames[next];
+                if (f.prefetched) {
+                    // read ahead and not reached by the scan yet
+                    next++;
+                } else if (BufferPool.this.claim(f, this)) {
+                    next++;
+                    ringRecycles.incrementAndGet();
+                    return f;
+                } else if (!f.busy.get()) {
+                    // dirty or write-locked: the scan can't reuse it
+                    release(next);
+                }
+            }
+            return null;
+        }
+
+        /** Hands the frame at position i back to the shared pool. */
+        private void release(int i) {
+            Frame f = frames[i];
+            frames[i] = frames[--size];
+            frames[size] = null;
+            ringFrames.decrementAndGet();
+            // wait out a read-ahead filling the frame
+            while (!f.busy.compareAndSet(false, true))
+                Thread.yield();
+            f.ring = null;
+            Page p = f.page;
+            if (p != null && _pageTable.get(p.getId()) == f) {
+                _policy.pageLoaded(f.index, p.getId());
+                f.busy.set(false);
+            } else {
+                free(f);
+            }
+        }
+
+        /**
+         * Returns the ring's frames, and the pages in them, to the shared
+         * pool. The ring provides no more frames afterwards.
+         */
+        public synchronized void close() {
+            closed = true;
+            while (size > 0)
+                release(size - 1);
+        }
+    }
+
+    /**
+     * @return the database page size in bytes, used by tables that aren't
+     *   created with a page size of their own
+     */
+    public static int getPageSize(){
+        return pageSize;
+    }
+
+    /**
+     * Sets the database page size. Must be called before the tables that
+     * should use it are created; existing tables keep their page size.
+     *
+     * @param size bytes per page, including header
+     */
+    public static void setPageSize(int size) {
+        if (size <= 0)
+            throw new IllegalArgumentException("invalid page size " + size);
+        pageSize = size;
+    }
+
+    /** Restores the default page size. */
+    public static void resetPageSize() {
+        pageSize = DEFAULT_PAGE_SIZE;
     }
 
     /**
@@ -143,6 +857,12 @@ public class BufferPool {
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * On commit, the pages the transaction dirtied are logged, unless
+     * {@link #logPages} logged them already, and a commit record forces
+     * the log. The pages are then clean, and the page writer writes their
+     * images to disk later; {@link LogFile#recover} redoes them from the
+     * log if the database stops before it does.
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
@@ -153,28 +873,69 @@ public class BufferPool {
         // some code goes here
         // not necessary for proj1
 
-
-        Iterator it = _bufferPool.entrySet().iterator();
-
+        Set<PageId> logged = _logged.remove(tid);
         if(commit){
-            while(it.hasNext()) {
-                Map.Entry pair = (Map.Entry)it.next();
-                HeapPage p = (HeapPage) pair.getValue();
-                if (p.isDirty() != null && p.isDirty().equals(tid)) {
-                    p.setBeforeImage();
-                    flushPage(p.getId());
+            Lock latch = commitLatch();
+            latch.lock();
+            try {
+                ArrayList<Page> dirty = dirtyPages(tid);
+                if (!dirty.isEmpty()) {
+                    LogFile log = Database.getLogFile();
+                    boolean unlogged = false;
+                    for (Page p : dirty) {
+                        if (logged == null || !logged.contains(p.getId())) {
+                            log.logWrite(tid, p.getBeforeImage(), p);
+                            unlogged = true;
+                        }
+                    }
+                    // a transaction run without Transaction has no commit
+                    // record yet, and recovery only redoes committed pages
+                    if (unlogged)
+                        log.logCommit(tid);
+                    for (Page p : dirty) {
+                        p.setBeforeImage();
+                        Page image = p.getBeforeImage();
+                        image.markDirty(true, tid);
+                        // staged before it is clean, so it can't be evicted
+                        // and read back from disk in between
+                        _writer.stage(image);
+                        p.markDirty(false, null);
+                    }
                 }
+            } finally {
+                latch.unlock();
             }
         } else{
-            while(it.hasNext()) {
-                Map.Entry pair = (Map.Entry)it.next();
-                HeapPage p = (HeapPage) pair.getValue();
-                if (p.isDirty() != null && p.isDirty().equals(tid)) {
-                   _bufferPool.put(p.getId(),p.getBeforeImage());
+            for (Frame f : _pageTable.values()) {
+                Page p = f.page;
+                if (p != null && p.isDirty() != null && p.isDirty().equals(tid)) {
+                   f.page = p.getBeforeImage();
+                   spaceRestored(f.page);
                 }
             }
         }
         lockManager.releaseAllLocks(tid);
+        if (!_overflow.isEmpty())
+            trimOverflow();
+    }
+
+    /**
+     * Tells the free-space map of the page's file how much room the page
+     * has again, now that an abort has put its before image back.
+     */
+    private static void spaceRestored(Page p) {
+        if (!(p instanceof HeapPage) && !(p instanceof SlottedPage) && !(p instanceof ColumnarPage))
+            return;
+        DbFile file = Database.getCatalog().getDbFile(p.getId().getTableId());
+        if (file instanceof HeapFile)
+            ((HeapFile) file).pageSpaceChanged(p.getId().pageNumber(),
+                    ((HeapPage) p).getNumEmptySlots() > 0);
+        else if (file instanceof SlottedFile)
+            ((SlottedFile) file).pageSpaceChanged(p.getId().pageNumber(),
+                    ((SlottedPage) p).getFreeSpace());
+        else if (file instanceof ColumnarFile)
+            ((ColumnarFile) file).pageSpaceChanged(p.getId().pageNumber(),
+                    ((ColumnarPage) p).getNumEmptySlots() > 0);
     }
 
     /**
@@ -196,6 +957,21 @@ public class BufferPool {
         Database.getCatalog().getDbFile(tableId).insertTuple(tid,t);
     }
 
+    /**
+     * Add all of the specified tuples to the specified table on behalf of
+     * transaction tid. Looks the table up once and lets the file fill each
+     * page it touches under a single lock acquisition; see
+     * {@link DbFile#insertTuples}.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add
+     */
+    public void insertTuples(TransactionId tid, int tableId, Iterable<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        Database.getCatalog().getDbFile(tableId).insertTuples(tid, tuples);
+    }
+
     /**
      * Remove the specified tuple from the buffer pool.
      * Will acquire a write lock on the page the tuple is removed from. May block if
@@ -215,24 +991,131 @@ public class BufferPool {
         Database.getCatalog().getDbFile(t.getRecordId().getPageId().getTableId()).deleteTuple(tid, t);
     }
 
+    /**
+     * Logs the pages the specified transaction dirtied, without forcing the
+     * log. Transaction calls this before it writes its commit record, which
+     * forces these records along with it, so that
+     * {@link #transactionComplete} doesn't have to log the pages again.
+     */
+    public void logPages(TransactionId tid) throws IOException {
+        HashSet<PageId> logged = new HashSet<PageId>();
+        LogFile log = Database.getLogFile();
+        for (Page p : dirtyPages(tid)) {
+            log.logWrite(tid, p.getBeforeImage(), p);
+            logged.add(p.getId());
+        }
+        _logged.put(tid, logged);
+    }
+
+    /**
+     * Returns the lock a committing transaction holds from its first log
+     * record until {@link #transactionComplete} has handed its pages to
+     * the page writer, so that the log isn't truncated in between.
+     */
+    Lock commitLatch() {
+        return _commitLatch.readLock();
+    }
+
+    /** @return the cached pages the specified transaction has dirtied */
+    private ArrayList<Page> dirtyPages(TransactionId tid) {
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        for (Frame f : _pageTable.values()) {
+            Page p = f.page;
+            if (p != null && p.isDirty() != null && p.isDirty().equals(tid))
+                dirty.add(p);
+        }
+        return dirty;
+    }
+
+    /**
+     * Sets the fraction of the pool that pages committed but not yet
+     * written may reach before the page writer starts writing them. The
+     * writer also writes them once they have waited
+     * {@link PageWriter#WRITE_DELAY_MILLIS}.
+     */
+    public void setDirtyRatio(double ratio) {
+        if (!(ratio >= 0))
+            throw new IllegalArgumentException("invalid dirty ratio " + ratio);
+        _writer.setDirtyRatio(ratio);
+    }
+
+    /** @return the number of committed pages not yet written to disk */
+    public int getUnwrittenPages() {
+        return _writer.stagedPages();
+    }
+
+    /** @return the number of pages the page writer's thread has written */
+    public long getBackgroundWrites() {
+        return _writer.backgroundWrites();
+    }
+
+    /**
+     * @return the number of pages committing transactions wrote
+     *   themselves, because the page writer had fallen a pool's worth of
+     *   pages behind
+     */
+    public long getCommitWrites() {
+        return _writer.commitWrites();
+    }
+
+    /**
+     * Writes the pages of committed transactions that the page writer
+     * hasn't written yet, for callers about to read a file directly.
+     */
+    void flushCommittedPages() throws IOException {
+        _writer.writeStaged();
+    }
+
+    /**
+     * Writes the pages of committed transactions to disk and stops the
+     * page writer. Pages committed afterwards are written at commit.
+     */
+    public void close() throws IOException {
+        _writer.close();
+    }
+
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // iterate through all files and flush pages
 
-        Iterator it = _bufferPool.entrySet().iterator(); // why entry set?
-
-        //Iterator<PageId> it = _bufferPool.keySet().iterator(); // instead of this
-
-        while (it.hasNext()) {
-
-            Map.Entry pair = (Map.Entry)it.next();
-            flushPage((PageId) pair.getKey());
+        _writer.writeStaged();
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        for (Frame f : _pageTable.values()) {
+            Page p = f.page;
+            if (p != null && p.isDirty() != null)
+                dirty.add(p);
+        }
+        writeDirtyPages(dirty);
+        if (!_overflow.isEmpty())
+            trimOverflow();
+    }
 
-            //flushPage(it.next()); // use this with keyset iterator
+    /**
+     * Writes the specified dirty pages to disk, logging each one first. The
+     * pages are sorted by table and page number and handed to each file
+     * together, so runs of adjacent pages go out as single sequential
+     * writes instead of one write per page in hash order. The log is
+     * forced before any page is written.
+     */
+    private void writeDirtyPages(ArrayList<Page> pages) throws IOException {
+        if (pages.isEmpty())
+            return;
+        Collections.sort(pages, PageWriter.FILE_ORDER);
+        for (Page pg : pages)
+            Database.getLogFile().logWrite(pg.isDirty(), pg.getBeforeImage(), pg);
+        Database.getLogFile().force();
+        int i = 0;
+        while (i < pages.size()) {
+            int tableId = pages.get(i).getId().getTableId();
+            int j = i + 1;
+            while (j < pages.size() && pages.get(j).getId().getTableId() == tableId)
+                j++;
+            Database.getCatalog().getDbFile(tableId).writePages(pages.subList(i, j));
+            i = j;
         }
     }
 
@@ -241,66 +1124,52 @@ public class BufferPool {
      buffer pool doesn't keep a rolled back page in its
      cache.
      */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for proj1
-        _bufferPool.remove(pid);
+        // the frame is reclaimed when the clock hand or trimOverflow finds
+        // it no longer mapped
+        _pageTable.remove(pid);
+        _pending.remove(pid);
+        // a committed image the page writer holds is still written; only
+        // pages of running transactions are rolled back
     }
 
     /**
-     * Flushes a certain page to disk
+     * Flushes a certain page to disk: the committed image the page writer
+     * holds for it, and then the cached page if it is dirty. Vacuum calls
+     * this before it drops the last page of a file, so that the page's
+     * committed contents aren't written after the file has shrunk.
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
-        // we need to take a page out of the hashmap and print it to disk
-        // get page from hashmap, file from db
-        Page pg = _bufferPool.get(pid);
-        DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
-
-        if(pg.isDirty() != null){
-            //update the log
-            Database.getLogFile().logWrite(pg.isDirty(),pg.getBeforeImage(),pg);
-        }
+    void flushPage(PageId pid) throws IOException {
+        _writer.write(pid);
+        Frame f = _pageTable.get(pid);
+        if (f == null || f.page == null)
+            return;
+        Page pg = f.page;
+        if (!pg.getId().equals(pid) || pg.isDirty() == null)
+            return;
+        //update the log
+        Database.getLogFile().logWrite(pg.isDirty(),pg.getBeforeImage(),pg);
+        Database.getLogFile().force();
         Database.getCatalog().getDbFile(pid.getTableId()).writePage(pg);
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for proj1
-        for (Page page : _bufferPool.values()) {
-            if (page.isDirty() !=null && page.isDirty()==tid) {
-                flushPage(page.getId());
-            }
-        }
-
-    }
-
-    /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
-     */
-    private synchronized  void evictPage() throws DbException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for proj1
-        boolean cleanP = true;
-
-        Iterator it = _bufferPool.entrySet().iterator();
-        while(it.hasNext()) {
-            cleanP = false;
-            Map.Entry pair = (Map.Entry)it.next();
-            HeapPage p = (HeapPage) pair.getValue();
-            if (p.isDirty() == null) {
-                it.remove();
-                _linkedList.remove(p.getId());
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        for (Frame f : _pageTable.values()) {
+            Page page = f.page;
+            if (page != null && page.isDirty() !=null && page.isDirty()==tid) {
+                dirty.add(page);
             }
         }
+        writeDirtyPages(dirty);
 
-        if(cleanP){
-            throw new DbException("No mo clean pages");
-        }
     }
 
-
 }
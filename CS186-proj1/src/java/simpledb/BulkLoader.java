@@ -0,0 +1,453 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * BulkLoader converts a delimited text file into a heap file, using all
+ * available cores. The input is split at line boundaries into chunks of
+ * about {@link #DEFAULT_CHUNK_SIZE} bytes; worker threads parse each chunk
+ * into complete HeapPage images, and the pages of each chunk are written
+ * in input order with a single large sequential write. Column statistics
+ * are gathered while the pages are built, so {@link #load} can register the
+ * table and its {@link TableStats} without scanning the new file again.
+ * <p>
+ * Every page holds tuples from one chunk only, so the last page of each
+ * chunk may be partly empty. Lines with the wrong number of fields or an
+ * unparseable number are skipped and counted; see {@link #getBadLines}.
+ *
+ * @see HeapFileEncoder
+ */
+public class BulkLoader {
+
+    /** Default number of input bytes parsed by one task. */
+    public static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+
+    private final File inFile;
+    private final TupleDesc td;
+    private final int pageSize;
+    private final int numSlots;
+    private final int headerSize;
+    private final int tupleSize;
+    private char fieldSeparator = ',';
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    // results of the last conversion
+    private long badLines;
+    private int tupleCount;
+    private int numPages;
+    private Object[] histograms;
+
+    /**
+     * @param inFile the text file to load, one tuple per line
+     * @param td the types of the fields on each line
+     * @param pageSize bytes per page of the heap file to create
+     */
+    public BulkLoader(File inFile, TupleDesc td, int pageSize) {
+        this.inFile = inFile;
+        this.td = td;
+        this.pageSize = pageSize;
+        this.numSlots = HeapPage.slotsPerPage(td, pageSize);
+        this.headerSize = HeapPage.headerBytes(numSlots);
+        this.tupleSize = td.getSize();
+        if (numSlots < 1)
+            throw new IllegalArgumentException("page size " + pageSize + " is too small for " + td);
+    }
+
+    /** Sets the character between fields on a line; ',' by default. */
+    public void setFieldSeparator(char fieldSeparator) {
+        this.fieldSeparator = fieldSeparator;
+    }
+
+    /** Sets the number of input bytes each task parses. */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("invalid chunk size " + chunkSize);
+        this.chunkSize = chunkSize;
+    }
+
+    /** Sets the number of threads parsing; the number of cores by default. */
+    public void setThreads(int threads) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("invalid thread count " + threads);
+        this.threads = threads;
+    }
+
+    /** @return the number of input lines skipped by the last conversion */
+    public long getBadLines() {
+        return badLines;
+    }
+
+    /** @return the number of tuples written by the last conversion */
+    public int getTupleCount() {
+        return tupleCount;
+    }
+
+    /** @return the number of pages written by the last conversion */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Converts the input into a heap file, adds it to the catalog under the
+     * specified name and records its statistics with
+     * {@link TableStats#setTableStats}. The log is recovered first, if
+     * that hasn't been done, so the catalog must already hold every table
+     * it has pages of.
+     *
+     * @return the new table
+     */
+    public HeapFile load(File outFile, String tableName) throws IOException {
+        // the new file isn't logged, so records of the table it replaces
+        // must not be left to a later recovery; this also keeps the
+        // committed pages of other tables, which the first log append
+        // would throw away
+        Database.getLogFile().recover();
+        convert(outFile);
+        HeapFile hf = new HeapFile(outFile, td, pageSize);
+        Database.getCatalog().addTable(hf, tableName);
+        TableStats.setTableStats(tableName,
+                new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE, tupleCount, histograms));
+        return hf;
+    }
+
+    /**
+     * Converts the input into a heap file, replacing outFile.
+     */
+    public void convert(File outFile) throws IOException {
+        badLines = 0;
+        tupleCount = 0;
+        numPages = 0;
+        histograms = new Object[td.numFields()];
+        int[] min = new int[td.numFields()];
+        int[] max = new int[td.numFields()];
+        double[] wideMin = new double[td.numFields()];
+        double[] wideMax = new double[td.numFields()];
+        ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        RandomAccessFile in = new RandomAccessFile(inFile, "r");
+        FileOutputStream out = new FileOutputStream(outFile);
+        try {
+            FileChannel inCh = in.getChannel();
+            FileChannel outCh = out.getChannel();
+            LinkedList<Future<Chunk>> inFlight = new LinkedList<Future<Chunk>>();
+            long start = 0;
+            long length = inCh.size();
+            while (start < length || !inFlight.isEmpty()) {
+                // keep a bounded number of chunks parsed ahead of the writer
+                while (start < length && inFlight.size() < 2 * threads) {
+                    long end = lineBoundary(inCh, Math.min(start + chunkSize, length));
+                    inFlight.add(pool.submit(new Parser(inCh, start, end)));
+                    start = end;
+                }
+                Chunk c = get(inFlight.removeFirst());
+                ByteBuffer buf = ByteBuffer.wrap(c.pages, 0, c.numPages * pageSize);
+                while (buf.hasRemaining())
+                    outCh.write(buf);
+                c.pages = null;
+                mergeRange(c, min, max, wideMin, wideMax);
+                chunks.add(c);
+            }
+            if (numPages == 0) {
+                // like HeapFileEncoder, an empty table still gets one page
+                outCh.write(ByteBuffer.wrap(HeapPage.createEmptyPageData(pageSize)));
+                numPages = 1;
+            }
+        } finally {
+            pool.shutdown();
+            in.close();
+            out.close();
+        }
+
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                IntHistogram h = new IntHistogram(TableStats.NUM_HIST_BINS, min[j], max[j]);
+                for (Chunk c : chunks)
+                    if (c.tupleCount > 0)
+                        h.merge((IntHistogram) c.histograms[j]);
+                histograms[j] = h;
+            } else if (td.getFieldType(j) != Type.STRING_TYPE) {
+                DoubleHistogram h = new DoubleHistogram(TableStats.NUM_HIST_BINS, wideMin[j], wideMax[j]);
+                for (Chunk c : chunks)
+                    if (c.tupleCount > 0)
+                        h.merge((DoubleHistogram) c.histograms[j]);
+                histograms[j] = h;
+            } else {
+                StringHistogram h = new StringHistogram(TableStats.NUM_HIST_BINS);
+                for (Chunk c : chunks)
+                    h.merge((StringHistogram) c.histograms[j]);
+                histograms[j] = h;
+            }
+        }
+    }
+
+    private void mergeRange(Chunk c, int[] min, int[] max, double[] wideMin, double[] wideMax) {
+        if (c.tupleCount > 0) {
+            for (int j = 0; j < td.numFields(); j++) {
+                min[j] = tupleCount == 0 ? c.min[j] : Math.min(min[j], c.min[j]);
+                max[j] = tupleCount == 0 ? c.max[j] : Math.max(max[j], c.max[j]);
+                wideMin[j] = tupleCount == 0 ? c.wideMin[j] : Math.min(wideMin[j], c.wideMin[j]);
+                wideMax[j] = tupleCount == 0 ? c.wideMax[j] : Math.max(wideMax[j], c.wideMax[j]);
+            }
+        }
+        tupleCount += c.tupleCount;
+        numPages += c.numPages;
+        badLines += c.badLines;
+    }
+
+    private static Chunk get(Future<Chunk> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("bulk load interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the offset just past the first newline at or after pos, or
+     *   the end of the file
+     */
+    private static long lineBoundary(FileChannel ch, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        long length = ch.size();
+        while (pos < length) {
+            buf.clear();
+            int n = ch.read(buf, pos);
+            if (n <= 0)
+                break;
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n')
+                    return pos + i + 1;
+            }
+            pos += n;
+        }
+        return length;
+    }
+
+    /** The pages and statistics built from one chunk of the input. */
+    private static class Chunk {
+        byte[] pages;
+        int numPages;
+        int tupleCount;
+        long badLines;
+        int[] min;
+        int[] max;
+        // the range of the long and double fields
+        double[] wideMin;
+        double[] wideMax;
+        Object[] histograms;
+    }
+
+    /** Parses the lines in [start, end) of the input into pages. */
+    private class Parser implements Callable<Chunk> {
+        private final FileChannel ch;
+        private final long start;
+        private final long end;
+
+        Parser(FileChannel ch, long start, long end) {
+            this.ch = ch;
+            this.start = start;
+            this.end = end;
+        }
+
+        public Chunk call() throws IOException {
+            byte[] text = new byte[(int) (end - start)];
+            ByteBuffer tb = ByteBuffer.wrap(text);
+            while (tb.hasRemaining()) {
+                if (ch.read(tb, start + tb.position()) < 0)
+                    break;
+            }
+
+            Chunk c = new Chunk();
+            c.min = new int[td.numFields()];
+            c.max = new int[td.numFields()];
+            c.wideMin = new double[td.numFields()];
+            c.wideMax = new double[td.numFields()];
+            // a page for every numSlots lines, which is at least enough
+            int lines = 1;
+            for (byte b : text)
+                if (b == '\n') lines++;
+            c.pages = new byte[((lines + numSlots - 1) / numSlots) * pageSize];
+            ByteBuffer pages = ByteBuffer.wrap(c.pages);
+            // the value of each numeric field; the bits of a double
+            long[] values = new long[td.numFields()];
+            int[] fieldStart = new int[td.numFields()];
+            int[] fieldEnd = new int[td.numFields()];
+
+            int pos = 0;
+            while (pos < text.length) {
+                int eol = pos;
+                while (eol < text.length && text[eol] != '\n')
+                    eol++;
+                int lineEnd = eol > pos && text[eol - 1] == '\r' ? eol - 1 : eol;
+                if (lineEnd > pos) {
+                    if (split(text, pos, lineEnd, fieldStart, fieldEnd) && parseNumbers(text, fieldStart, fieldEnd, values))
+                        addTuple(c, pages, text, fieldStart, fieldEnd, values);
+                    else
+                        c.badLines++;
+                }
+                pos = eol + 1;
+            }
+            if (c.tupleCount % numSlots != 0)
+                c.numPages++;
+
+            // build this chunk's histograms now that its range is known
+            c.histograms = new Object[td.numFields()];
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE)
+                    c.histograms[j] = new IntHistogram(TableStats.NUM_HIST_BINS, c.min[j], c.max[j]);
+                else if (td.getFieldType(j) != Type.STRING_TYPE)
+                    c.histograms[j] = new DoubleHistogram(TableStats.NUM_HIST_BINS, c.wideMin[j], c.wideMax[j]);
+                else
+                    c.histograms[j] = new StringHistogram(TableStats.NUM_HIST_BINS);
+            }
+            int off = 0;
+            for (int i = 0; i < td.numFields(); i++) {
+                for (int t = 0; t < c.tupleCount; t++) {
+                    int base = (t / numSlots) * pageSize + headerSize + (t % numSlots) * tupleSize + off;
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        ((IntHistogram) c.histograms[i]).addValue(pages.getInt(base));
+                    } else if (td.getFieldType(i) == Type.LONG_TYPE) {
+                        ((DoubleHistogram) c.histograms[i]).addValue(pages.getLong(base));
+                    } else if (td.getFieldType(i) == Type.DOUBLE_TYPE) {
+                        ((DoubleHistogram) c.histograms[i]).addValue(pages.getDouble(base));
+                    } else {
+                        int len = pages.getInt(base);
+                        ((StringHistogram) c.histograms[i]).addValue(new String(c.pages, base + 4, len, StringField.UTF8));
+                    }
+                }
+                off += td.getFieldType(i).getLen();
+            }
+            return c;
+        }
+
+        /** Finds the fields of a line; false if there are too few or many. */
+        private boolean split(byte[] text, int from, int to, int[] fieldStart, int[] fieldEnd) {
+            int field = 0;
+            fieldStart[0] = from;
+            for (int i = from; i < to; i++) {
+                if (text[i] == fieldSeparator) {
+                    if (field + 1 >= fieldStart.length)
+                        return false;
+                    fieldEnd[field++] = i;
+                    fieldStart[field] = i + 1;
+                }
+            }
+            fieldEnd[field] = to;
+            if (field != fieldStart.length - 1)
+                return false;
+            // trim surrounding whitespace, as String.trim() does
+            for (int j = 0; j < fieldStart.length; j++) {
+                while (fieldStart[j] < fieldEnd[j] && (text[fieldStart[j]] & 0xFF) <= ' ')
+                    fieldStart[j]++;
+                while (fieldEnd[j] > fieldStart[j] && (text[fieldEnd[j] - 1] & 0xFF) <= ' ')
+                    fieldEnd[j]--;
+            }
+            return true;
+        }
+
+        private boolean parseNumbers(byte[] text, int[] fieldStart, int[] fieldEnd, long[] values) {
+            for (int j = 0; j < values.length; j++) {
+                Type type = td.getFieldType(j);
+                if (type == Type.INT_TYPE) {
+                    if (!parseInteger(text, fieldStart[j], fieldEnd[j], Integer.MIN_VALUE, Integer.MAX_VALUE, values, j))
+                        return false;
+                } else if (type == Type.LONG_TYPE) {
+                    if (!parseInteger(text, fieldStart[j], fieldEnd[j], Long.MIN_VALUE, Long.MAX_VALUE, values, j))
+                        return false;
+                } else if (type == Type.DOUBLE_TYPE) {
+                    if (fieldStart[j] == fieldEnd[j])
+                        return false;
+                    try {
+                        String s = new String(text, fieldStart[j], fieldEnd[j] - fieldStart[j], StringField.UTF8);
+                        values[j] = Double.doubleToRawLongBits(Double.parseDouble(s));
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Parses the decimal integer in text[from, to) into values[j].
+         * @return false if it is malformed or outside [min, max]
+         */
+        private boolean parseInteger(byte[] text, int from, int to, long min, long max,
+                long[] values, int j) {
+            int i = from;
+            boolean negative = i < to && text[i] == '-';
+            if (negative || i < to && text[i] == '+')
+                i++;
+            if (i == to)
+                return false;
+            // accumulate negatively, since |min| > max
+            long limit = negative ? min : -max;
+            long v = 0;
+            for (; i < to; i++) {
+                int d = text[i] - '0';
+                if (d < 0 || d > 9)
+                    return false;
+                if (v < limit / 10)
+                    return false;
+                v *= 10;
+                if (v < limit + d)
+                    return false;
+                v -= d;
+            }
+            values[j] = negative ? v : -v;
+            return true;
+        }
+
+        private void addTuple(Chunk c, ByteBuffer pages, byte[] text, int[] fieldStart,
+                int[] fieldEnd, long[] values) {
+            int page = c.tupleCount / numSlots;
+            int slot = c.tupleCount % numSlots;
+            int pageOff = page * pageSize;
+            if (slot == 0 && c.tupleCount > 0)
+                c.numPages++;
+            c.pages[pageOff + slot / 8] |= (byte) (1 << (slot % 8));
+            int off = pageOff + headerSize + slot * tupleSize;
+            for (int j = 0; j < values.length; j++) {
+                Type type = td.getFieldType(j);
+                if (type == Type.INT_TYPE) {
+                    int v = (int) values[j];
+                    pages.putInt(off, v);
+                    if (c.tupleCount == 0 || v < c.min[j])
+                        c.min[j] = v;
+                    if (c.tupleCount == 0 || v > c.max[j])
+                        c.max[j] = v;
+                } else if (type != Type.STRING_TYPE) {
+                    pages.putLong(off, values[j]);
+                    double v = type == Type.LONG_TYPE ? values[j] : Double.longBitsToDouble(values[j]);
+                    if (c.tupleCount == 0 || v < c.wideMin[j])
+                        c.wideMin[j] = v;
+                    if (c.tupleCount == 0 || v > c.wideMax[j])
+                        c.wideMax[j] = v;
+                } else {
+                    int len = StringField.truncatedLength(text, fieldStart[j],
+                            fieldEnd[j] - fieldStart[j], Type.STRING_LEN);
+                    pages.putInt(off, len);
+                    System.arraycopy(text, fieldStart[j], c.pages, off + 4, len);
+                }
+                off += td.getFieldType(j).getLen();
+            }
+            c.tupleCount++;
+        }
+    }
+}
@@ -102,10 +102,25 @@ public class Catalog {
         return fileMap.get(tableid).tableFile;
     }
 
+    /**
+     * Returns the page size of the specified table
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public int getPageSize(int tableid) throws NoSuchElementException {
+        return getDbFile(tableid).getPageSize();
+    }
+
     public String getPrimaryKey(int tableid) {
         return fileMap.get(tableid).tablePKeyField;
     }
 
+    /** @return whether the catalog has a table with the specified id */
+    public boolean hasTable(int tableid) {
+        return fileMap.containsKey(tableid);
+    }
+
     public Iterator<Integer> tableIdIterator() {
         return idMap.values().iterator();
 
@@ -123,6 +138,39 @@ public class Catalog {
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * <p>
+     * A database whose page size isn't {@link BufferPool#DEFAULT_PAGE_SIZE}
+     * records it in a line of its own, normally the first:
+     * <pre>
+     *     pagesize=N
+     * </pre>
+     * which sets {@link BufferPool#setPageSize the database page size} for
+     * the tables listed after it.
+     * <p>
+     * Every other line describes one table:
+     * <pre>
+     *     name (field type [pk], field type, ...) [option=value ...]
+     * </pre>
+     * where each type is <tt>int</tt>, <tt>long</tt>, <tt>double</tt> or
+     * <tt>string</tt>, and the options are
+     * <ul>
+     * <li><tt>pagesize</tt>, the table's page size in bytes. Tables without
+     *     it use {@link BufferPool#getPageSize}.
+     * <li><tt>storage</tt>, the file format: <tt>heap</tt> (the default,
+     *     a {@link HeapFile}), <tt>mapped</tt> (a {@link MappedHeapFile}),
+     *     <tt>compressed</tt> (a {@link CompressedHeapFile}, for cold
+     *     tables),
+     *     <tt>slotted</tt> (a {@link SlottedFile}, which stores strings at
+     *     their actual length) or <tt>columnar</tt> (a {@link ColumnarFile},
+     *     whose scans only decode the columns a query uses).
+     * <li><tt>io</tt>, either <tt>buffered</tt> (the default) or
+     *     <tt>direct</tt>, which makes a heap table bypass the operating
+     *     system's page cache (see {@link HeapFile#setDirectIO}). A table
+     *     that can't be opened that way is an invalid entry.
+     * <li><tt>extent</tt>, the number of bytes a heap, mapped or compressed
+     *     table grows by when it needs a new page (see
+     *     {@link HeapFile#setExtentSize}).
+     * </ul>
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -132,6 +180,10 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
 
             while ((line = br.readLine()) != null) {
+                if (line.indexOf("(") < 0 && line.trim().toLowerCase().startsWith("pagesize=")) {
+                    BufferPool.setPageSize(Integer.parseInt(line.trim().substring("pagesize=".length())));
+                    continue;
+                }
                 //assume line is of the format name (field type, field type, ...)
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
@@ -143,14 +195,12 @@ public class Catalog {
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
-                    if (els2[1].trim().toLowerCase().equals("int"))
-                        types.add(Type.INT_TYPE);
-                    else if (els2[1].trim().toLowerCase().equals("string"))
-                        types.add(Type.STRING_TYPE);
-                    else {
+                    Type t = Type.forName(els2[1]);
+                    if (t == null) {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
+                    types.add(t);
                     if (els2.length == 3) {
                         if (els2[2].trim().equals("pk"))
                             primaryKey = els2[0].trim();
@@ -160,10 +210,70 @@ public class Catalog {
                         }
                     }
                 }
+                int pageSize = BufferPool.getPageSize();
+                String storage = "heap";
+                boolean directIO = false;
+                int extentSize = 0;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                if (options.length() > 0) {
+                    for (String option : options.split("\\s+")) {
+                        String[] kv = option.split("=");
+                        if (kv.length == 2 && kv[0].toLowerCase().equals("pagesize"))
+                            pageSize = Integer.parseInt(kv[1]);
+                        else if (kv.length == 2 && kv[0].toLowerCase().equals("storage"))
+                            storage = kv[1].toLowerCase();
+                        else if (kv.length == 2 && kv[0].toLowerCase().equals("io")
+                                && (kv[1].toLowerCase().equals("direct") || kv[1].toLowerCase().equals("buffered")))
+                            directIO = kv[1].toLowerCase().equals("direct");
+                        else if (kv.length == 2 && kv[0].toLowerCase().equals("extent"))
+                            extentSize = Integer.parseInt(kv[1]);
+                        else {
+                            System.out.println("Unknown option " + option);
+                            System.exit(0);
+                        }
+                    }
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (storage.equals("heap"))
+                    tabHf = new HeapFile(dataFile, t, pageSize);
+                else if (storage.equals("mapped"))
+                    tabHf = new MappedHeapFile(dataFile, t, pageSize);
+                else if (storage.equals("compressed"))
+                    tabHf = new CompressedHeapFile(dataFile, t, pageSize);
+                else if (storage.equals("slotted"))
+                    tabHf = new SlottedFile(dataFile, t, pageSize);
+                else if (storage.equals("columnar"))
+                    tabHf = new ColumnarFile(dataFile, t, pageSize);
+                else {
+                    System.out.println("Unknown storage " + storage);
+                    System.exit(0);
+                    return;
+                }
+                if (directIO) {
+                    if (!storage.equals("heap")) {
+                        System.out.println("io=direct needs storage=heap : " + line);
+                        System.exit(0);
+                    }
+                    ((HeapFile) tabHf).setDirectIO(true);
+                    // open the file now, so that a file system without
+                    // O_DIRECT is reported here rather than by the first query
+                    try {
+                        ((HeapFile) tabHf).getChannel();
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException(e.getMessage());
+                    }
+                }
+                if (extentSize != 0) {
+                    if (!(tabHf instanceof HeapFile)) {
+                        System.out.println("extent needs a heap, mapped or compressed table : " + line);
+                        System.exit(0);
+                    }
+                    ((HeapFile) tabHf).setExtentSize(extentSize);
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -173,6 +283,9 @@ public class Catalog {
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (IllegalArgumentException e) {
+            System.out.println ("Invalid catalog entry : " + line + " (" + e.getMessage() + ")");
+            System.exit(0);
         }
     }
 }
@@ -0,0 +1,55 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The CLOCK (second chance) replacement policy. Each frame has a reference
+ * bit, set when its page is loaded or accessed. A hand shared by all
+ * threads sweeps the frames, clearing set bits, and offers the first frame
+ * whose bit is already clear. Every bit cleared was set by an access, so a
+ * sweep costs amortized O(1) per access.
+ * <p>
+ * No locks are taken: an access is a single write to an
+ * AtomicIntegerArray, and the hand is an AtomicInteger, so this is the
+ * policy that scales best with the number of threads.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private final int numFrames;
+    // 1 if the frame's page has been accessed since the hand last passed
+    private final AtomicIntegerArray referenced;
+    // grows without bound; taken modulo numFrames
+    private final AtomicInteger hand = new AtomicInteger();
+
+    public ClockPolicy(int numFrames) {
+        this.numFrames = numFrames;
+        this.referenced = new AtomicIntegerArray(numFrames);
+    }
+
+    public void pageAccessed(int frame) {
+        // don't write a bit that's already set; hot pages stay read-only
+        if (referenced.get(frame) == 0)
+            referenced.set(frame, 1);
+    }
+
+    public void pageLoaded(int frame, PageId pid) {
+        referenced.set(frame, 1);
+    }
+
+    /**
+     * Sweeps at most three times around the frames: once to clear every
+     * reference bit, once more to find a victim, and once to allow for
+     * other threads setting bits behind the hand.
+     */
+    public int chooseVictim(EvictionTest test) {
+        for (int i = 0; i < 3 * numFrames; i++) {
+            int frame = (hand.getAndIncrement() & Integer.MAX_VALUE) % numFrames;
+            if (referenced.get(frame) != 0)
+                referenced.set(frame, 0);
+            else if (test.tryEvict(frame))
+                return frame;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,379 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * ColumnarFile is a DbFile that stores its tuples on ColumnarPages, which
+ * group the values of each column together within the page (PAX layout).
+ * Besides the ordinary row iterator it offers {@link #iterator(TransactionId,
+ * int[])}, which decodes only the requested columns; SeqScan uses it when
+ * the query plan only needs some of the columns of the table.
+ *
+ * @see ColumnarPage
+ */
+public class ColumnarFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private File file;
+    private TupleDesc tupleDesc;
+    private int pageSize;
+
+    private transient volatile FileChannel channel;
+
+    // pages believed to have an empty slot; built on first use
+    private transient volatile FreeSpaceMap freeSpace;
+
+    // pages in the file, including new ones not written yet; -1 until
+    // first needed. Guarded by this when changed.
+    private transient volatile int pageCount = -1;
+
+    public ColumnarFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a columnar file with its own page size.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     * @param td the schema of the tuples stored in the file.
+     * @param pageSize bytes per page, including header.
+     * @throws IllegalArgumentException if a page of this size can't hold a
+     *            single tuple
+     */
+    public ColumnarFile(File f, TupleDesc td, int pageSize) {
+        if (HeapPage.slotsPerPage(td, pageSize) < 1)
+            throw new IllegalArgumentException("page size " + pageSize + " is too small for " + td);
+        this.file = f;
+        this.tupleDesc = td;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Returns the File backing this ColumnarFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return Math.abs(file.getAbsoluteFile().hashCode()) % 10000000;
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    /**
+     * Returns the TupleDesc of the tuples returned by a scan of the
+     * specified columns of td.
+     */
+    public static TupleDesc projectTupleDesc(TupleDesc td, int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            types[i] = td.getFieldType(columns[i]);
+            names[i] = td.getFieldName(columns[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    private FileChannel getChannel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null) {
+            synchronized (this) {
+                if (channel == null)
+                    channel = new RandomAccessFile(file, "rw").getChannel();
+                ch = channel;
+            }
+        }
+        return ch;
+    }
+
+    private void read(ByteBuffer buf, long offset) throws IOException {
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, offset + buf.position()) < 0)
+                break;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) throws IOException {
+        int pgNo = pid.pageNumber();
+        if (pgNo < 0 || pgNo >= numPages())
+            throw new IllegalArgumentException("page " + pgNo + " does not exist in " + file);
+        byte[] data = new byte[pageSize];
+        read(ByteBuffer.wrap(data), (long) pgNo * pageSize);
+        return new ColumnarPage((HeapPageId) pid, data);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        if (page.isDirty() != null) {
+            ByteBuffer buf = ByteBuffer.wrap(page.getPageData());
+            FileChannel ch = getChannel();
+            long offset = (long) page.getId().pageNumber() * pageSize;
+            while (buf.hasRemaining())
+                ch.write(buf, offset + buf.position());
+        }
+        page.markDirty(false, null);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        HeapFile.writeRuns(getChannel(), pageSize, pages);
+    }
+
+    // see DbFile.java for javadocs
+    public int numPages() {
+        int n = pageCount;
+        if (n < 0) {
+            synchronized (this) {
+                if (pageCount < 0)
+                    pageCount = (int) (file.length() / pageSize);
+                n = pageCount;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Adds a page to the end of the file. Nothing is written; the page
+     * reads as empty until it is, and pages written past the end of the
+     * file leave empty pages before them.
+     *
+     * @return the number of the new page
+     */
+    private synchronized int allocatePage() {
+        int pgNo = numPages();
+        pageCount = pgNo + 1;
+        return pgNo;
+    }
+
+    /**
+     * Forgets the page count and free-space map, so that both are worked
+     * out from the file again after recovery has written to it.
+     */
+    synchronized void resetPageCount() {
+        pageCount = -1;
+        freeSpace = null;
+    }
+
+    private FreeSpaceMap getFreeSpaceMap() throws IOException {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm == null) {
+            // the map is read from the headers on disk, so write the
+            // committed pages the buffer pool hasn't written yet first;
+            // outside the lock, as writing them may need it
+            Database.getBufferPool().flushCommittedPages();
+            synchronized (this) {
+                if (freeSpace == null) {
+                    fsm = new FreeSpaceMap();
+                    int numSlots = HeapPage.slotsPerPage(tupleDesc, pageSize);
+                    ByteBuffer header = ByteBuffer.allocate(HeapPage.headerBytes(numSlots));
+                    int pages = numPages();
+                    for (int i = 0; i < pages; i++) {
+                        header.clear();
+                        read(header, (long) i * pageSize);
+                        int used = 0;
+                        for (int j = 0; j < header.position(); j++)
+                            used += Integer.bitCount(header.get(j) & 0xFF);
+                        fsm.setFree(i, used < numSlots);
+                    }
+                    freeSpace = fsm;
+                }
+                fsm = freeSpace;
+            }
+        }
+        return fsm;
+    }
+
+    /**
+     * Records whether the specified page has an empty slot, after an insert
+     * or delete on it or after an abort restored it.
+     */
+    void pageSpaceChanged(int pgNo, boolean hasRoom) {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null)
+            fsm.setFree(pgNo, hasRoom);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> result = new ArrayList<Page>();
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        int pages = numPages();
+        for (int i = fsm.nextFree(0); i >= 0 && i < pages; i = fsm.nextFree(i + 1)) {
+            ColumnarPage p = (ColumnarPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(getId(), i), Permissions.READ_WRITE);
+            if (p.getNumEmptySlots() > 0) {
+                p.insertTuple(t);
+                p.markDirty(true, tid);
+                fsm.setFree(i, p.getNumEmptySlots() > 0);
+                result.add(p);
+                return result;
+            }
+            // stale hint
+            fsm.setFree(i, false);
+        }
+
+        ColumnarPage newPage = new ColumnarPage(new HeapPageId(getId(), allocatePage()), new byte[pageSize]);
+        newPage.insertTuple(t);
+        // cached as a page of tid, like the new pages of insertTuples
+        Database.getBufferPool().addNewPage(tid, newPage);
+        fsm.setFree(newPage.getId().pageNumber(), newPage.getNumEmptySlots() > 0);
+        result.add(newPage);
+        return result;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterable<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> result = new ArrayList<Page>();
+        Iterator<Tuple> it = tuples.iterator();
+        Tuple t = it.hasNext() ? it.next() : null;
+        if (t == null)
+            return result;
+
+        // fill the pages that have room first, locking each one once
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        int pages = numPages();
+        for (int i = fsm.nextFree(0); t != null && i >= 0 && i < pages; i = fsm.nextFree(i + 1)) {
+            ColumnarPage p = (ColumnarPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(getId(), i), Permissions.READ_WRITE);
+            if (p.getNumEmptySlots() == 0) {
+                // stale hint
+                fsm.setFree(i, false);
+                continue;
+            }
+            while (t != null && p.getNumEmptySlots() > 0) {
+                p.insertTuple(t);
+                t = it.hasNext() ? it.next() : null;
+            }
+            p.markDirty(true, tid);
+            fsm.setFree(i, p.getNumEmptySlots() > 0);
+            result.add(p);
+        }
+
+        // then put the rest on new pages, cached as pages of tid
+        while (t != null) {
+            ColumnarPage p = new ColumnarPage(new HeapPageId(getId(), allocatePage()),
+                    new byte[pageSize]);
+            while (t != null && p.getNumEmptySlots() > 0) {
+                p.insertTuple(t);
+                t = it.hasNext() ? it.next() : null;
+            }
+            Database.getBufferPool().addNewPage(tid, p);
+            fsm.setFree(p.getId().pageNumber(), p.getNumEmptySlots() > 0);
+            result.add(p);
+        }
+        return result;
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        if (t.getRecordId() == null || t.getRecordId().getPageId().getTableId() != getId())
+            throw new DbException("No such tuple");
+        try {
+            ColumnarPage p = (ColumnarPage) Database.getBufferPool().getPage(tid,
+                    t.getRecordId().getPageId(), Permissions.READ_WRITE);
+            p.deleteTuple(t);
+            p.markDirty(true, tid);
+            pageSpaceChanged(p.getId().pageNumber(), true);
+            return p;
+        } catch (IOException e) {
+            throw new DbException("No such tuple");
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator<Tuple> iterator(TransactionId tid) {
+        int[] all = new int[tupleDesc.numFields()];
+        for (int j = 0; j < all.length; j++)
+            all[j] = j;
+        return iterator(tid, all);
+    }
+
+    /**
+     * Returns an iterator over the specified columns of the tuples stored in
+     * this file. The returned tuples have the TupleDesc
+     * {@link #projectTupleDesc projectTupleDesc(getTupleDesc(), columns)}
+     * and carry the RecordId of the stored tuple, so they can be passed to
+     * {@link #deleteTuple}.
+     *
+     * @param tid the transaction the scan is part of
+     * @param columns indexes of the columns to return, in output order
+     */
+    public DbFileIterator<Tuple> iterator(final TransactionId tid, final int[] columns) {
+        final TupleDesc projected = projectTupleDesc(tupleDesc, columns);
+        return new DbFileIterator<Tuple>() {
+
+            private int pageNo;
+            // pages as of open(); pages added since are not scanned
+            private int pages;
+            private Iterator<Tuple> current;
+            private boolean isOpen = false;
+            private ReadAhead readAhead = new ReadAhead(ColumnarFile.this);
+
+            public void open() throws DbException, TransactionAbortedException {
+                isOpen = true;
+                pageNo = -1;
+                pages = numPages();
+                current = null;
+                readAhead.reset();
+            }
+
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                if (!isOpen)
+                    return false;
+                while (current == null || !current.hasNext()) {
+                    if (pageNo + 1 >= pages)
+                        return false;
+                    pageNo++;
+                    readAhead.pageVisited(pageNo);
+                    try {
+                        ColumnarPage p = (ColumnarPage) Database.getBufferPool().getPage(tid,
+                                new HeapPageId(getId(), pageNo), Permissions.READ_ONLY);
+                        current = p.iterator(columns, projected);
+                    } catch (IOException e) {
+                        throw new DbException("could not read page " + pageNo + ": " + e.getMessage());
+                    }
+                }
+                return true;
+            }
+
+            public Tuple next() throws DbException, TransactionAbortedException {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return current.next();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                if (!isOpen)
+                    throw new DbException("Iterator closed");
+                open();
+            }
+
+            public void close() {
+                isOpen = false;
+                current = null;
+            }
+        };
+    }
+}
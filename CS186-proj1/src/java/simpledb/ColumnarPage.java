@@ -0,0 +1,255 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * ColumnarPage stores the tuples of a ColumnarFile in PAX layout: the page
+ * has the same slot header and holds the same number of tuples as a
+ * HeapPage of the same size, but the values of each column are kept
+ * together in their own minipage instead of being interleaved row by row:
+ * <pre>
+ *     header bitmap (one bit per slot, as in HeapPage)
+ *     minipage 0: numSlots values of column 0
+ *     minipage 1: numSlots values of column 1
+ *     ...
+ * </pre>
+ * A scan that only needs some of the columns decodes only their minipages.
+ *
+ * @see ColumnarFile
+ */
+public class ColumnarPage implements Page {
+
+    HeapPageId pid;
+    TupleDesc td;
+    int numSlots;
+    int headerSize;
+    // offset of the minipage of each column
+    int[] columnOffsets;
+
+    // the page exactly as it is laid out on disk
+    byte[] data;
+    ByteBuffer buf;
+    // true while data is also the before image; copied before it is next
+    // modified
+    private boolean dataShared;
+
+    byte[] oldData;
+
+    TransactionId dirtyTransactionID;
+
+    /**
+     * Create a ColumnarPage from a set of bytes of data read from disk, in
+     * the format described above.
+     */
+    public ColumnarPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        int pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        if (data.length != pageSize)
+            data = java.util.Arrays.copyOf(data, pageSize);
+        this.numSlots = HeapPage.slotsPerPage(td, pageSize);
+        this.headerSize = HeapPage.headerBytes(numSlots);
+        this.columnOffsets = new int[td.numFields()];
+        int off = headerSize;
+        for (int j = 0; j < td.numFields(); j++) {
+            columnOffsets[j] = off;
+            off += numSlots * td.getFieldType(j).getLen();
+        }
+        setData(data);
+        setBeforeImage();
+    }
+
+    private void setData(byte[] data) {
+        this.data = data;
+        this.buf = ByteBuffer.wrap(data);
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** Return a view of this page before it was modified
+     -- used by recovery */
+    public ColumnarPage getBeforeImage() {
+        try {
+            return new ColumnarPage(pid, oldData);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        // share the current bytes; the next modification copies them
+        oldData = data;
+        dataShared = true;
+    }
+
+    private void beforeModify() {
+        if (dataShared) {
+            setData(data.clone());
+            dataShared = false;
+        }
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyTransactionID = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtyTransactionID;
+    }
+
+    /** Returns the number of empty slots on this page. */
+    public int getNumEmptySlots() {
+        int used = 0;
+        for (int i = 0; i < headerSize; i++)
+            used += Integer.bitCount(data[i] & 0xFF);
+        return numSlots - used;
+    }
+
+    /** Returns true if associated slot on this page is filled. */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && (data[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value)
+            data[i / 8] |= (1 << (i % 8));
+        else
+            data[i / 8] &= ~(1 << (i % 8));
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple is updated to reflect
+     * that it is now stored on this page.
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (t.getTupleDesc().numFields() != td.numFields())
+            throw new DbException("tupledesc is mismatch");
+        for (int j = 0; j < td.numFields(); j++) {
+            if (t.getField(j) == null || t.getField(j).getType() != td.getFieldType(j))
+                throw new DbException("tupledesc is mismatch");
+        }
+        int slot = 0;
+        while (slot < numSlots && isSlotUsed(slot))
+            slot++;
+        if (slot == numSlots)
+            throw new DbException("Page full");
+
+        beforeModify();
+        for (int j = 0; j < td.numFields(); j++)
+            t.getField(j).serialize(buf, columnOffsets[j] + slot * td.getFieldType(j).getLen());
+        markSlotUsed(slot, true);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Delete the specified tuple from the page; the tuple is updated to
+     * reflect that it is no longer stored on any page. Only the tuple's
+     * RecordId is looked at, so a projected tuple can be deleted too.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())
+                || rid.getPageId().getTableId() != pid.getTableId()
+                || !isSlotUsed(rid.tupleno()))
+            throw new DbException("No such tuple");
+
+        beforeModify();
+        int slot = rid.tupleno();
+        for (int j = 0; j < td.numFields(); j++) {
+            int len = td.getFieldType(j).getLen();
+            java.util.Arrays.fill(data, columnOffsets[j] + slot * len, columnOffsets[j] + (slot + 1) * len, (byte) 0);
+        }
+        markSlotUsed(slot, false);
+        t.setRecordId(null);
+    }
+
+    /**
+     * Decodes the specified columns of the tuple in the specified slot.
+     *
+     * @param slot a used slot
+     * @param columns the columns of the table to decode, in the order they
+     *   appear in the returned tuple
+     * @param projected the TupleDesc of the returned tuple
+     */
+    public Tuple getTuple(int slot, int[] columns, TupleDesc projected) {
+        if (!isSlotUsed(slot))
+            throw new NoSuchElementException("slot " + slot + " is empty");
+        return decode(buf, slot, columns, projected);
+    }
+
+    private Tuple decode(ByteBuffer b, int slot, int[] columns, TupleDesc projected) {
+        Tuple t = new Tuple(projected);
+        for (int i = 0; i < columns.length; i++) {
+            Type type = td.getFieldType(columns[i]);
+            t.setField(i, type.parse(b, columnOffsets[columns[i]] + slot * type.getLen()));
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *   this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        int[] all = new int[td.numFields()];
+        for (int j = 0; j < all.length; j++)
+            all[j] = j;
+        return iterator(all, td);
+    }
+
+    /**
+     * @return an iterator over the specified columns of all tuples on this
+     *   page
+     * @see #getTuple(int, int[], TupleDesc)
+     */
+    public Iterator<Tuple> iterator(final int[] columns, final TupleDesc projected) {
+        // the iterator reads the bytes as of its creation, like a before
+        // image, so concurrent changes to this page don't affect it
+        dataShared = true;
+        final byte[] bytes = data;
+        final ByteBuffer b = ByteBuffer.wrap(bytes);
+        return new Iterator<Tuple>() {
+
+            private int slot = nextUsedSlot(0);
+
+            private int nextUsedSlot(int i) {
+                while (i < numSlots && (bytes[i / 8] & (1 << (i % 8))) == 0)
+                    i++;
+                return i;
+            }
+
+            public boolean hasNext() {
+                return slot < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = decode(b, slot, columns, projected);
+                slot = nextUsedSlot(slot + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,191 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * A Tuple that keeps its values in primitive arrays rather than one Field
+ * object per column. Int fields live in an int[] and long and double
+ * fields in a long[]; the UTF-8 bytes of string fields are stored in a
+ * single byte[] that the int[] holds offsets into. {@link #getInt} and {@link #getString} read the arrays directly,
+ * and Field objects are only created when {@link #getField} asks for one.
+ * <p>
+ * Operators that build or hold on to many tuples (joins, the build side of
+ * a hash join) use CompactTuples to keep the garbage collector out of their
+ * inner loops; see {@link #copyOf} and {@link #merge}.
+ */
+public class CompactTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    // the value of each int field, or the offset in text of each string field
+    private final int[] values;
+    // the length of each string field; null if the tuple has none
+    private final int[] lengths;
+    // the value of each long field, and the bits of each double field; null
+    // if the tuple has neither
+    private final long[] wide;
+    // the bytes of the string fields
+    private byte[] text;
+    private int textLength;
+
+    /**
+     * Creates a tuple with the specified schema whose numeric fields are 0
+     * and whose string fields are empty.
+     *
+     * @param td
+     *            the schema of this tuple.
+     */
+    public CompactTuple(TupleDesc td) {
+        // the values live in the arrays below rather than in Field objects
+        super(td, null);
+        int n = td.numFields();
+        values = new int[n];
+        int strings = 0, wides = 0;
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE)
+                strings++;
+            else if (td.getFieldType(i) != Type.INT_TYPE)
+                wides++;
+        }
+        lengths = strings > 0 ? new int[n] : null;
+        wide = wides > 0 ? new long[n] : null;
+        text = strings > 0 ? new byte[strings * 16] : null;
+    }
+
+    /**
+     * Returns a CompactTuple with the same schema, values and RecordId as t,
+     * all of whose fields must be set.
+     */
+    public static CompactTuple copyOf(Tuple t) {
+        CompactTuple copy = new CompactTuple(t.getTupleDesc());
+        copy.copyFrom(t, 0);
+        copy.setRecordId(t.getRecordId());
+        return copy;
+    }
+
+    /**
+     * Returns the concatenation of t1 and t2, as returned by a join.
+     *
+     * @param td
+     *            the merged schema of t1 and t2, which the caller has
+     *            usually already computed with {@link TupleDesc#merge}
+     */
+    public static CompactTuple merge(TupleDesc td, Tuple t1, Tuple t2) {
+        CompactTuple merged = new CompactTuple(td);
+        merged.copyFrom(t1, 0);
+        merged.copyFrom(t2, t1.getTupleDesc().numFields());
+        return merged;
+    }
+
+    /** Copies the fields of t into this tuple, starting at field start. */
+    private void copyFrom(Tuple t, int start) {
+        TupleDesc td = t.getTupleDesc();
+        int n = td.numFields();
+        if (t instanceof CompactTuple) {
+            CompactTuple c = (CompactTuple) t;
+            for (int j = 0; j < n; j++) {
+                Type type = td.getFieldType(j);
+                if (type == Type.INT_TYPE)
+                    values[start + j] = c.values[j];
+                else if (type == Type.STRING_TYPE)
+                    setText(start + j, c.text, c.values[j], c.lengths[j]);
+                else
+                    wide[start + j] = c.wide[j];
+            }
+            return;
+        }
+        for (int j = 0; j < n; j++) {
+            Type type = td.getFieldType(j);
+            if (type == Type.INT_TYPE)
+                values[start + j] = t.getInt(j);
+            else if (type == Type.STRING_TYPE)
+                setString(start + j, (StringField) t.getField(j));
+            else if (type == Type.LONG_TYPE)
+                wide[start + j] = t.getLong(j);
+            else
+                wide[start + j] = Double.doubleToRawLongBits(t.getDouble(j));
+        }
+    }
+
+    /**
+     * Points field i at a copy of len bytes of src, at the end of text.
+     * Replaced strings are not reclaimed; tuples are rarely updated.
+     */
+    private void setText(int i, byte[] src, int off, int len) {
+        ensureText(len);
+        System.arraycopy(src, off, text, textLength, len);
+        values[i] = textLength;
+        lengths[i] = len;
+        textLength += len;
+    }
+
+    private void setString(int i, StringField f) {
+        setText(i, f.rawBytes(), f.rawOffset(), f.rawLength());
+    }
+
+    private void ensureText(int len) {
+        if (textLength + len > text.length)
+            text = Arrays.copyOf(text, Math.max(textLength + len, text.length * 2));
+    }
+
+    /**
+     * Change the value of the ith field of this tuple. The value is copied
+     * into the tuple; f itself is not kept.
+     *
+     * @throws NullPointerException if f is null
+     */
+    @Override
+    public void setField(int i, Field f) {
+        if (f.getType() == Type.INT_TYPE)
+            values[i] = ((IntField) f).getValue();
+        else if (f.getType() == Type.STRING_TYPE)
+            setString(i, (StringField) f);
+        else if (f.getType() == Type.LONG_TYPE)
+            wide[i] = ((LongField) f).getValue();
+        else
+            wide[i] = Double.doubleToRawLongBits(((DoubleField) f).getValue());
+    }
+
+    /**
+     * @return a new Field holding the value of the ith field
+     */
+    @Override
+    public Field getField(int i) {
+        Type type = getTupleDesc().getFieldType(i);
+        if (type == Type.INT_TYPE)
+            return new IntField(values[i]);
+        if (type == Type.LONG_TYPE)
+            return new LongField(wide[i]);
+        if (type == Type.DOUBLE_TYPE)
+            return new DoubleField(Double.longBitsToDouble(wide[i]));
+        return new StringField(text, values[i], lengths[i], Type.STRING_LEN);
+    }
+
+    @Override
+    public int getInt(int i) {
+        if (getTupleDesc().getFieldType(i) != Type.INT_TYPE)
+            throw new ClassCastException("field " + i + " is not an int field");
+        return values[i];
+    }
+
+    @Override
+    public long getLong(int i) {
+        if (getTupleDesc().getFieldType(i) != Type.LONG_TYPE)
+            throw new ClassCastException("field " + i + " is not a long field");
+        return wide[i];
+    }
+
+    @Override
+    public double getDouble(int i) {
+        if (getTupleDesc().getFieldType(i) != Type.DOUBLE_TYPE)
+            throw new ClassCastException("field " + i + " is not a double field");
+        return Double.longBitsToDouble(wide[i]);
+    }
+
+    @Override
+    public String getString(int i) {
+        if (getTupleDesc().getFieldType(i) != Type.STRING_TYPE)
+            throw new ClassCastException("field " + i + " is not a string field");
+        return new String(text, values[i], lengths[i], StringField.UTF8);
+    }
+}
@@ -0,0 +1,278 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * CompressedHeapFile is a HeapFile for cold tables that keeps each page on
+ * disk in the compressed form produced by {@link PageCompressor}. Pages are
+ * decompressed into ordinary HeapPages when they are read into the
+ * BufferPool, so operators and the rest of the system see no difference.
+ * <p>
+ * Compressed pages have different sizes, so the backing file is just a
+ * sequence of compressed pages and a separate directory file (the backing
+ * file's name with <tt>.dir</tt> appended) records the offset and length
+ * of each page. A page that compresses no larger than before is rewritten
+ * in place; otherwise it is appended to the end of the file, and the space
+ * it used to take is only reclaimed by compressing the table again with
+ * {@link #compress}.
+ *
+ * @see HeapFile
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Bytes per entry in the directory file: a long offset, an int length. */
+    private static final int DIRECTORY_ENTRY_SIZE = 12;
+
+    private File directoryFile;
+    private transient PageCompressor compressor;
+
+    // the page directory, loaded on first use
+    private transient long[] offsets;
+    private transient int[] lengths;
+    private transient int pageCount = -1;
+    private transient RandomAccessFile directory;
+
+    /**
+     * Constructs a compressed heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the compressed pages; its directory is
+     *            stored next to it.
+     * @param td
+     *            the schema of the tuples stored in the file.
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a compressed heap file with its own (uncompressed) page
+     * size.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, int)
+     */
+    public CompressedHeapFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, pageSize);
+        this.directoryFile = new File(f.getPath() + ".dir");
+    }
+
+    /**
+     * Writes a compressed copy of the pages of source to dest, replacing
+     * any existing file and directory there.
+     *
+     * @return the compressed file, which is not added to the catalog
+     */
+    public static CompressedHeapFile compress(HeapFile source, File dest) throws IOException {
+        CompressedHeapFile target = new CompressedHeapFile(dest, source.getTupleDesc(), source.getPageSize());
+        dest.delete();
+        target.directoryFile.delete();
+        ByteBuffer buf = ByteBuffer.allocate(source.getPageSize());
+        int pages = source.numPages();
+        for (int i = 0; i < pages; i++) {
+            buf.clear();
+            source.readPageData(i, buf);
+            target.writePageData(i, buf.array());
+        }
+        target.close();
+        return target;
+    }
+
+    private PageCompressor getCompressor() {
+        if (compressor == null)
+            compressor = new PageCompressor(getTupleDesc(), getPageSize());
+        return compressor;
+    }
+
+    /** Reads the directory file the first time the directory is needed. */
+    private void loadDirectory() throws IOException {
+        if (pageCount >= 0)
+            return;
+        directory = new RandomAccessFile(directoryFile, "rw");
+        int count = (int) (directory.length() / DIRECTORY_ENTRY_SIZE);
+        offsets = new long[Math.max(count, 16)];
+        lengths = new int[offsets.length];
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(directoryFile)));
+        try {
+            for (int i = 0; i < count; i++) {
+                offsets[i] = in.readLong();
+                lengths[i] = in.readInt();
+            }
+        } finally {
+            in.close();
+        }
+        pageCount = count;
+    }
+
+    /** Closes the directory file; it is reopened when next needed. */
+    synchronized void close() throws IOException {
+        if (directory != null)
+            directory.close();
+        directory = null;
+        pageCount = -1;
+    }
+
+    /**
+     * Returns the number of pages in this file, according to its directory.
+     */
+    @Override
+    public synchronized int numPages() {
+        try {
+            loadDirectory();
+        } catch (IOException e) {
+            throw new RuntimeException("could not read page directory " + directoryFile, e);
+        }
+        return pageCount;
+    }
+
+    /**
+     * Drops the directory entries of the pages past numPages, and gives back
+     * the space at the end of the file that no remaining page uses.
+     */
+    @Override
+    protected synchronized void truncate(int numPages) throws IOException {
+        loadDirectory();
+        if (numPages >= pageCount)
+            return;
+        pageCount = numPages;
+        directory.setLength((long) numPages * DIRECTORY_ENTRY_SIZE);
+        long end = 0;
+        for (int i = 0; i < numPages; i++)
+            end = Math.max(end, offsets[i] + lengths[i]);
+        getChannel().truncate(end);
+    }
+
+    /**
+     * Adds empty entries to the end of the directory; compressed pages are
+     * only stored once they are written, so no space is preallocated.
+     */
+    @Override
+    protected synchronized int allocatePages(int count) throws IOException {
+        loadDirectory();
+        int first = pageCount;
+        if (first + count > offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(first + count, offsets.length * 2));
+            lengths = Arrays.copyOf(lengths, offsets.length);
+        }
+        for (int i = first; i < first + count; i++)
+            writeDirectoryEntry(i, 0, 0);
+        pageCount = first + count;
+        return first;
+    }
+
+    /** @return the total size of the compressed pages, in bytes */
+    public synchronized long compressedSize() {
+        int pages = numPages();
+        long size = 0;
+        for (int i = 0; i < pages; i++)
+            size += lengths[i];
+        return size;
+    }
+
+    /**
+     * Reads the compressed bytes of the specified page.
+     * @return the bytes, or null if the page has never been written
+     */
+    private byte[] readCompressed(int pgNo) throws IOException {
+        long offset;
+        byte[] data;
+        synchronized (this) {
+            loadDirectory();
+            if (pgNo >= pageCount || lengths[pgNo] == 0)
+                return null;
+            offset = offsets[pgNo];
+            data = new byte[lengths[pgNo]];
+        }
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, offset + buf.position()) < 0)
+                throw new IOException("compressed page " + pgNo + " is truncated");
+        }
+        return data;
+    }
+
+    @Override
+    protected void readPageData(int pgNo, ByteBuffer buf) throws IOException {
+        byte[] data = readCompressed(pgNo);
+        if (data == null) {
+            while (buf.hasRemaining())
+                buf.put((byte) 0);
+            return;
+        }
+        buf.put(getCompressor().decompress(data));
+    }
+
+    @Override
+    protected void readPageHeader(int pgNo, ByteBuffer header) throws IOException {
+        // the slot bitmap is stored uncompressed at the start of the page
+        byte[] data = readCompressed(pgNo);
+        if (data != null)
+            header.put(data, 0, Math.min(header.remaining(), data.length));
+    }
+
+    /**
+     * Compressed pages aren't block aligned, so they can't be read with
+     * direct I/O.
+     *
+     * @throws UnsupportedOperationException if direct is true
+     */
+    @Override
+    public synchronized void setDirectIO(boolean direct) {
+        if (direct)
+            throw new UnsupportedOperationException("compressed files don't support direct I/O");
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void writePage(Page page) throws IOException {
+        if (page.isDirty() != null)
+            writePageData(page.getId().pageNumber(), page.getPageData());
+        page.markDirty(false, null);
+    }
+
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        // every page compresses to a different size, so they go one by one
+        for (Page p : pages)
+            writePage(p);
+    }
+
+    /**
+     * Compresses the specified page image and stores it, then points the
+     * directory at it.
+     */
+    private synchronized void writePageData(int pgNo, byte[] page) throws IOException {
+        loadDirectory();
+        byte[] data = getCompressor().compress(page);
+        FileChannel ch = getChannel();
+        long offset = pgNo < pageCount && data.length <= lengths[pgNo] ? offsets[pgNo] : ch.size();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining())
+            ch.write(buf, offset + buf.position());
+
+        if (pgNo >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(pgNo + 1, offsets.length * 2));
+            lengths = Arrays.copyOf(lengths, offsets.length);
+        }
+        // pages are only ever appended one at a time, but don't leave holes
+        // in the directory if they aren't
+        for (int i = pageCount; i < pgNo; i++)
+            writeDirectoryEntry(i, 0, 0);
+        writeDirectoryEntry(pgNo, offset, data.length);
+        pageCount = Math.max(pageCount, pgNo + 1);
+    }
+
+    private void writeDirectoryEntry(int pgNo, long offset, int length) throws IOException {
+        offsets[pgNo] = offset;
+        lengths[pgNo] = length;
+        directory.seek((long) pgNo * DIRECTORY_ENTRY_SIZE);
+        directory.writeLong(offset);
+        directory.writeInt(length);
+    }
+}
@@ -51,12 +51,33 @@ public class Database {
         buffer pool and return it
     */
     public static BufferPool resetBufferPool(int pages) {
+        closeBufferPool();
         _instance._bufferpool = new BufferPool(pages);
         return _instance._bufferpool;
     }
 
+    /** Create a new instance of the buffer pool with the named
+        replacement policy and return it
+        @see BufferPool#newPolicy
+    */
+    public static BufferPool resetBufferPool(int pages, String policy) {
+        closeBufferPool();
+        _instance._bufferpool = new BufferPool(pages, policy);
+        return _instance._bufferpool;
+    }
+
+    /** Write out the committed pages of the buffer pool being replaced */
+    private static void closeBufferPool() {
+        try {
+            _instance._bufferpool.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     //reset the database, used for unit tests only.
     public static void reset() {
+        closeBufferPool();
     	_instance = new Database();
     }
 
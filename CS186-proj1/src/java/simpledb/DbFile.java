@@ -4,6 +4,7 @@ package simpledb;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * The interface for database files on disk. Each table is represented by a
@@ -29,6 +30,16 @@ public interface DbFile extends Serializable {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push the specified pages to disk. Runs of pages with consecutive page
+     * numbers are written together.
+     *
+     * @param pages The pages to write, all from this file and sorted by page
+     *          number.
+     * @throws IOException if the write fails
+     */
+    public void writePages(List<Page> pages) throws IOException;
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -44,6 +55,24 @@ public interface DbFile extends Serializable {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts all of the specified tuples into the file on behalf of the
+     * transaction. Unlike repeated calls to {@link #insertTuple}, each page
+     * that receives tuples is fetched and locked once and filled before
+     * moving on. Pages added at the end of the file go into the buffer
+     * pool as dirty pages of the transaction, like any other page it
+     * changes, and are written when it commits.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to add; each is updated to reflect where it
+     *          is now stored.
+     * @return An ArrayList containing the pages that were modified
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterable<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException;
+
     /**
      * Removes the specifed tuple from the file on behalf of the specified
      * transaction.
@@ -63,7 +92,7 @@ public interface DbFile extends Serializable {
      *
      * @return an iterator over all the tuples stored in this DbFile.
      */
-    public DbFileIterator iterator(TransactionId tid);
+    public DbFileIterator<Tuple> iterator(TransactionId tid);
 
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
@@ -85,4 +114,15 @@ public interface DbFile extends Serializable {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Returns the size in bytes of the pages of this DbFile.
+     * @return bytes per page, including header.
+     */
+    public int getPageSize();
+
+    /**
+     * Returns the number of pages in this DbFile.
+     */
+    public int numPages();
 }
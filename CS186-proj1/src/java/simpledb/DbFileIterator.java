@@ -21,7 +21,9 @@ public interface DbFileIterator<T> extends Serializable {
 
     /**
      * Gets the next tuple from the operator (typically implementing by reading
-     * from a child operator or an access method).
+     * from a child operator or an access method). The tuple may be reused
+     * for the following row; callers that keep it must keep
+     * {@link Tuple#retain} of it.
      *
      * @return The next tuple in the iterator.
      * @throws NoSuchElementException if there are no more tuples
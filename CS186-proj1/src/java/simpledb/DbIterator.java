@@ -27,7 +27,9 @@ public interface DbIterator extends Serializable{
 
   /**
    * Returns the next tuple from the operator (typically implementing by reading
-   * from a child operator or an access method).
+   * from a child operator or an access method). The tuple may be reused
+   * for the following row; callers that keep it must keep
+   * {@link Tuple#retain} of it.
    *
    * @return the next tuple in the iteration.
    * @throws NoSuchElementException if there are no more tuples.
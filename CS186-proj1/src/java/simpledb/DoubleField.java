@@ -0,0 +1,97 @@
+package simpledb;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Instance of Field that stores a single double, such as an amount of
+ * money or a measurement.
+ */
+public class DoubleField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private double value;
+
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param v The value of this field.
+     */
+    public DoubleField(double v) {
+        value = v;
+    }
+
+    public String toString() {
+        return Double.toString(value);
+    }
+
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(value);
+        return (int) (bits ^ (bits >>> 32));
+    }
+
+    /**
+     * Two DoubleFields are equal if their values are identical, as for
+     * Double.equals, so they can be used as hash keys.
+     */
+    public boolean equals(Object field) {
+        return field instanceof DoubleField
+                && Double.doubleToLongBits(((DoubleField) field).value) == Double.doubleToLongBits(value);
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeDouble(value);
+    }
+
+    public void serialize(ByteBuffer buf, int offset) {
+        buf.putDouble(offset, value);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.
+     * Return semantics are as specified by Field.compare
+     *
+     * @throws IllegalCastException if val is not a DoubleField
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        return compare(op, value, ((DoubleField) val).value);
+    }
+
+    /**
+     * Compares two double values the way
+     * {@link #compare(Predicate.Op, Field)} compares two DoubleFields.
+     */
+    public static boolean compare(Predicate.Op op, double value, double other) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return value == other;
+        case NOT_EQUALS:
+            return value != other;
+        case GREATER_THAN:
+            return value > other;
+        case GREATER_THAN_OR_EQ:
+            return value >= other;
+        case LESS_THAN:
+            return value < other;
+        case LESS_THAN_OR_EQ:
+            return value <= other;
+        }
+        return false;
+    }
+
+    /**
+     * Return the Type of this field.
+     * @return Type.DOUBLE_TYPE
+     */
+    public Type getType() {
+        return Type.DOUBLE_TYPE;
+    }
+}
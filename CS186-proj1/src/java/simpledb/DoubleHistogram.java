@@ -0,0 +1,143 @@
+package simpledb;
+
+/**
+ * A class to represent a fixed-width histogram over a single long or double
+ * field. Long values are histogrammed as doubles, which is exact enough for
+ * selectivity estimates.
+ *
+ * @see IntHistogram
+ */
+public class DoubleHistogram {
+
+    private int bucketCount;
+    private int bucketList[];
+    private double min;
+    private double max;
+    private double width;
+    private int ntups;
+
+    /**
+     * Create a new DoubleHistogram.
+     *
+     * @param buckets The number of buckets to split the input value into.
+     * @param min The minimum value that will ever be passed to this class for histogramming
+     * @param max The maximum value that will ever be passed to this class for histogramming
+     */
+    public DoubleHistogram(int buckets, double min, double max) {
+        this.bucketCount = buckets;
+        this.bucketList = new int[buckets];
+        this.min = min;
+        this.max = max;
+        this.width = (max - min) / buckets;
+        // a single value, or a range too wide to represent
+        if (!(width > 0) || Double.isInfinite(width))
+            width = width > 0 ? Double.MAX_VALUE / buckets : 1;
+        ntups = 0;
+    }
+
+    /**
+     * Add a value to the set of values that you are keeping a histogram of.
+     * @param v Value to add to the histogram
+     */
+    public void addValue(double v) {
+        bucketList[determineBucket(v)]++;
+        ntups++;
+    }
+
+    /**
+     * Adds the values counted by another histogram to this one. Each bucket
+     * of other is spread over the buckets of this histogram in proportion to
+     * how much of its range they cover; values outside [min, max] go to the
+     * first or last bucket.
+     *
+     * @see IntHistogram#merge
+     */
+    void merge(DoubleHistogram other) {
+        for (int j = 0; j < other.bucketCount; j++) {
+            int count = other.bucketList[j];
+            if (count == 0)
+                continue;
+            double lo = Math.min(Math.max(other.min + j * other.width, min), max);
+            double hi = Math.min(Math.max(other.min + (j + 1) * other.width, min), max);
+            int first = determineBucket(lo);
+            int last = determineBucket(hi);
+            int given = 0;
+            for (int i = first; i <= last; i++) {
+                double bLo = Math.max(min + i * width, lo);
+                double bHi = Math.min(min + (i + 1) * width, hi);
+                int share = i == last ? count - given : (int) (count * ((bHi - bLo) / (hi - lo)));
+                bucketList[i] += share;
+                given += share;
+            }
+        }
+        ntups += other.ntups;
+    }
+
+    public int determineBucket(double v) {
+        double offset = (v - min) / width;
+        if (!(offset > 0))
+            return 0;
+        return offset >= bucketCount ? bucketCount - 1 : (int) offset;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this table.
+     *
+     * @param op Operator
+     * @param v Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(Predicate.Op op, double v) {
+        if (ntups == 0)
+            return 0;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                if (v < min || v > max) {return 0;}
+                return (double) bucketList[determineBucket(v)] / ntups;
+            case NOT_EQUALS:
+                return 1 - estimateSelectivity(Predicate.Op.EQUALS, v);
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return fractionAbove(v);
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+                return 1 - fractionAbove(v);
+        }
+        return 0;
+    }
+
+    /** @return the fraction of values above v, assuming each bucket is uniform */
+    private double fractionAbove(double v) {
+        if (v < min) {return 1;}
+        if (v >= max) {return 0;}
+        int i = determineBucket(v);
+        double right = min + (i + 1) * width;
+        double count = bucketList[i] * Math.min(1, Math.max(0, (right - v) / width));
+        for (int j = i + 1; j < bucketCount; j++)
+            count += bucketList[j];
+        return count / ntups;
+    }
+
+    /**
+     * @return the average selectivity of an equality predicate on this
+     *     field, for a value drawn from the field itself
+     */
+    public double avgSelectivity() {
+        if (ntups == 0)
+            return 0;
+        double sum = 0;
+        for (int j = 0; j < bucketCount; j++) {
+            double f = (double) bucketList[j] / ntups;
+            sum += f * f;
+        }
+        return sum;
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        return "DoubleHistogram";
+    }
+}
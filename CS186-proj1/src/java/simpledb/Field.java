@@ -3,6 +3,7 @@ package simpledb;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -16,6 +17,15 @@ public interface Field extends Serializable{
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field into buf at the specified
+     * absolute offset, without moving the buffer's position. Writes exactly
+     * getType().getLen() bytes.
+     * @param buf The buffer to write to.
+     * @param offset The offset of the field's first byte in buf
+     */
+    void serialize(ByteBuffer buf, int offset);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
@@ -25,7 +35,9 @@ public interface Field extends Serializable{
     public boolean compare(Predicate.Op op, Field value);
 
     /**
-     * Returns the type of this field (see {@link Type#INT_TYPE} or {@link Type#STRING_TYPE}
+     * Returns the type of this field (see {@link Type#INT_TYPE},
+     * {@link Type#STRING_TYPE}, {@link Type#LONG_TYPE} or
+     * {@link Type#DOUBLE_TYPE})
      * @return type of this field
      */
     public Type getType();
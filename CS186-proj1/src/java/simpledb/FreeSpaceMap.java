@@ -0,0 +1,42 @@
+package simpledb;
+
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap tracks which pages of a HeapFile have at least one empty
+ * slot, so that an insert can go straight to a page with room instead of
+ * scanning the file.
+ * <p>
+ * The map is a hint: a page marked free may turn out to be full (for
+ * example after a rollback restored its before image), and callers must
+ * check the page itself and clear the entry when it is stale.
+ *
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    private final BitSet free = new BitSet();
+
+    /**
+     * Records whether the specified page has room for another tuple.
+     *
+     * @param pgNo the page number
+     * @param hasRoom true if the page has at least one empty slot
+     */
+    public synchronized void setFree(int pgNo, boolean hasRoom) {
+        free.set(pgNo, hasRoom);
+    }
+
+    /**
+     * @return the lowest-numbered page at or after fromPgNo believed to
+     *   have an empty slot, or -1 if there is none
+     */
+    public synchronized int nextFree(int fromPgNo) {
+        return free.nextSetBit(fromPgNo);
+    }
+
+    /** Forget all pages at or after the specified page number. */
+    public synchronized void truncate(int numPages) {
+        free.clear(numPages, Math.max(numPages, free.length()));
+    }
+}
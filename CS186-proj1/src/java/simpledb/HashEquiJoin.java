@@ -53,15 +53,32 @@ public class HashEquiJoin extends Operator {
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
     public final static int MAP_SIZE = 20000;
 
+    /**
+     * Returns the hash key of the specified field of t: an Integer or Long
+     * for int and long fields, so probing doesn't have to decode the field,
+     * or the Field.
+     */
+    private static Object key(Tuple t, int field) {
+        Type type = t.getTupleDesc().getFieldType(field);
+        if (type == Type.INT_TYPE)
+            return Integer.valueOf(t.getInt(field));
+        if (type == Type.LONG_TYPE)
+            return Long.valueOf(t.getLong(field));
+        return t.getField(field);
+    }
+
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
         map.clear();
         while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
+            // keep a compact copy, so the map doesn't pin the child's pages
+            // or a Field object per column
+            t1 = CompactTuple.copyOf(child1.next());
+            Object k = key(t1, pred.getField1());
+            ArrayList<Tuple> list = map.get(k);
             if (list == null) {
                 list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+                map.put(k, list);
             }
             list.add(t1);
             if (cnt++ == MAP_SIZE)
@@ -74,6 +91,7 @@ public class HashEquiJoin extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        super.open();
         child1.open();
         child2.open();
         loadMap();
@@ -116,18 +134,7 @@ public class HashEquiJoin extends Operator {
      */
     private Tuple processList() throws TransactionAbortedException, DbException {
         t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
-
+        return CompactTuple.merge(comboTD, t1, t2);
     }
 
 
@@ -142,7 +149,7 @@ public class HashEquiJoin extends Operator {
 
             // if match, create a combined tuple and fill it with the values
             // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
+            ArrayList<Tuple> l = map.get(key(t2, pred.getField2()));
             if (l == null)
                 continue;
             listIt = l.iterator();
@@ -1,8 +1,14 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -17,6 +23,8 @@ import java.util.NoSuchElementException;
  */
 public class HeapFile implements DbFile {
 
+    private static final long serialVersionUID = 1L;
+
     /**
      * Constructs a heap file backed by the specified file.
      *
@@ -26,10 +34,62 @@ public class HeapFile implements DbFile {
      */
     private File file;
     private TupleDesc tupleDesc;
+    private int pageSize;
+
+    // channel kept open for the lifetime of this file; all page I/O goes
+    // through positional reads and writes on it, so concurrent callers
+    // don't share a file pointer
+    private transient volatile FileChannel channel;
+
+    // whether pages read from this file are backed by direct buffers
+    private boolean directBuffers = false;
+
+    // whether to open the channel with O_DIRECT
+    private boolean directIO = false;
+
+    // pages believed to have an empty slot; built on first use
+    private transient volatile FreeSpaceMap freeSpace;
+
+    /** Default number of bytes the file grows by when it runs out of pages. */
+    public static final int DEFAULT_EXTENT_SIZE = 1 << 20;
+
+    // pages added to the file at a time
+    private int extentPages;
+
+    // pages in use, which may be fewer than the file holds since it grows
+    // a whole extent at a time; -1 until first needed. Guarded by this
+    // when changed.
+    private transient volatile int logicalPages = -1;
+    // pages the file holds on disk; guarded by this
+    private transient int allocatedPages;
+    // new pages handed out by allocateNewPage that aren't in the buffer
+    // pool yet, which Vacuum must not drop; guarded by this
+    private transient int uncachedNewPages = 0;
 
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a heap file with its own page size.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param td
+     *            the schema of the tuples stored in the file.
+     * @param pageSize
+     *            bytes per page, including header.
+     * @throws IllegalArgumentException if a page of this size can't hold
+     *            a single tuple
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
+        if (HeapPage.slotsPerPage(td, pageSize) < 1)
+            throw new IllegalArgumentException("page size " + pageSize + " is too small for " + td);
         this.file = f;
         this.tupleDesc = td;
+        this.pageSize = pageSize;
+        this.extentPages = Math.max(1, DEFAULT_EXTENT_SIZE / pageSize);
     }
 
     /**
@@ -66,85 +126,516 @@ public class HeapFile implements DbFile {
         //throw new UnsupportedOperationException("implement this");
     }
 
-    // see DbFile.java for javadocs
-    public Page readPage(PageId pid) {
-
-
-        byte[] bFile = new byte[(int) file.length()];
-        FileInputStream fileInputStream;
-        RandomAccessFile randomAccessFile;
-        try
-        {
-            randomAccessFile = new RandomAccessFile(file, "rw");
-            randomAccessFile.skipBytes(pid.pageNumber() *  BufferPool.PAGE_SIZE);
-            randomAccessFile.read(bFile);
-            randomAccessFile.close();
+    /**
+     * Returns the size of the pages of this file.
+     *
+     * @return bytes per page, including header.
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
 
-            //fileInputStream = new FileInputStream(file);
-            //fileInputStream.skip(pid.pageNumber() *  BufferPool.PAGE_SIZE);
-            //fileInputStream.read(bFile);
-            //fileInputStream.close();
+    /**
+     * Returns the channel backing this file, opening it on first use.
+     */
+    protected FileChannel getChannel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null) {
+            synchronized (this) {
+                if (channel == null)
+                    channel = openChannel();
+                ch = channel;
+            }
+        }
+        return ch;
+    }
 
-            return new HeapPage((HeapPageId) pid, bFile);
+    private FileChannel openChannel() throws IOException {
+        if (directIO) {
+            OpenOption direct = directOpenOption();
+            File dir = file.getAbsoluteFile().getParentFile();
+            long blockSize = Files.getFileStore(file.exists() ? file.toPath() : dir.toPath()).getBlockSize();
+            String why = null;
+            if (direct == null)
+                why = "this JDK has no O_DIRECT open option";
+            else if (pageSize % blockSize != 0 || HeapPage.BUFFER_ALIGNMENT % blockSize != 0)
+                why = "page size " + pageSize + " isn't a multiple of the block size " + blockSize;
+            else {
+                try {
+                    return FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE, direct);
+                } catch (UnsupportedOperationException e) {
+                    why = "the file system doesn't support O_DIRECT";
+                } catch (IOException e) {
+                    throw new IOException("direct I/O is not available for " + file, e);
+                }
+            }
+            throw new IOException("direct I/O is not available for " + file + ": " + why);
         }
-        catch (Exception e)
-        {
-            //e.printStackTrace();
+        return new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    /**
+     * @return the JDK's O_DIRECT open option, or null if this JDK doesn't
+     *   have one
+     */
+    private static OpenOption directOpenOption() {
+        try {
+            Class<?> c = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            return (OpenOption) c.getField("DIRECT").get(null);
+        } catch (Exception e) {
+            return null;
         }
+    }
 
-        return null;
+    /**
+     * Chooses whether this file bypasses the operating system's page cache
+     * (O_DIRECT), so pages are only cached once, in the BufferPool. Pages are
+     * then read into aligned direct buffers. This needs a page size that is
+     * a multiple of the file system's block size; if direct I/O isn't
+     * available, opening the file fails with an IOException rather than
+     * quietly using buffered I/O.
+     * <p>
+     * Must be called before the file is first read or written.
+     *
+     * @throws IllegalStateException if the file is already open
+     */
+    public synchronized void setDirectIO(boolean direct) {
+        if (channel != null)
+            throw new IllegalStateException("direct I/O must be chosen before " + file + " is opened");
+        this.directIO = direct;
+        if (direct)
+            this.directBuffers = true;
+    }
+
+    /**
+     * @return true if this file's I/O bypasses the operating system's page
+     *   cache; opens the file if it isn't open yet
+     * @throws IOException if direct I/O was chosen but isn't available
+     */
+    public boolean isDirectIO() throws IOException {
+        getChannel();
+        return directIO;
+    }
+
+    /**
+     * Chooses whether pages read from this file keep their contents in
+     * direct buffers, which the channel can read into and write from without
+     * an intermediate copy, or in heap buffers (the default).
+     */
+    public void setDirectBuffers(boolean direct) {
+        this.directBuffers = direct;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) throws IOException {
+        int pgNo = pid.pageNumber();
+        if (pgNo < 0 || pgNo >= numPages())
+            throw new IllegalArgumentException("page " + pgNo + " does not exist in " + file);
+
+        // the page takes ownership of the buffer, so the bytes are read
+        // straight into the page's storage
+        ByteBuffer buf = HeapPage.allocatePageBuffer(pageSize, directBuffers);
+        readPageData(pgNo, buf);
+        buf.clear();
+        return new HeapPage((HeapPageId) pid, buf);
+    }
+
+    /**
+     * Reads the bytes of the specified page into buf, which has room for
+     * exactly one page.
+     */
+    protected void readPageData(int pgNo, ByteBuffer buf) throws IOException {
+        FileChannel ch = getChannel();
+        long offset = (long) pgNo * pageSize;
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, offset + buf.position());
+            if (n < 0)
+                break;
+        }
+        // a short final page reads back as empty slots
+        while (buf.hasRemaining())
+            buf.put((byte) 0);
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
 
         if (page.isDirty() != null) {
+            ByteBuffer buf = page instanceof HeapPage ? ((HeapPage) page).getPageBuffer()
+                    : ByteBuffer.wrap(page.getPageData());
+            FileChannel ch = getChannel();
+            long offset = (long) page.getId().pageNumber() * pageSize;
+            while (buf.hasRemaining())
+                ch.write(buf, offset + buf.position());
+        }
+        page.markDirty(false, null);
+    }
 
-            byte[] data = page.getPageData();
-
-            RandomAccessFile randomAccessFile;
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        writeRuns(getChannel(), pageSize, pages);
+    }
 
-            randomAccessFile = new RandomAccessFile(file, "rw");
-            randomAccessFile.skipBytes(page.getId().pageNumber() * BufferPool.PAGE_SIZE);
-            randomAccessFile.write(data);
-            randomAccessFile.close();
+    /**
+     * Writes the dirty pages among the specified pages, which are sorted by
+     * page number, to ch. Each run of consecutive pages is written with a
+     * single gathering write. All of the pages are marked clean.
+     */
+    static void writeRuns(FileChannel ch, int pageSize, List<? extends Page> pages) throws IOException {
+        ArrayList<ByteBuffer> run = new ArrayList<ByteBuffer>();
+        int first = -1;
+        for (int i = 0; i <= pages.size(); i++) {
+            Page page = i < pages.size() ? pages.get(i) : null;
+            if (page != null && page.isDirty() == null)
+                continue;
+            int pgNo = page != null ? page.getId().pageNumber() : -1;
+            if (!run.isEmpty() && (page == null || pgNo != first + run.size())) {
+                writeRun(ch, (long) first * pageSize, run.toArray(new ByteBuffer[run.size()]));
+                run.clear();
+            }
+            if (page == null)
+                break;
+            if (run.isEmpty())
+                first = pgNo;
+            run.add(page instanceof HeapPage ? ((HeapPage) page).getPageBuffer()
+                    : ByteBuffer.wrap(page.getPageData()));
+        }
+        for (Page page : pages)
+            page.markDirty(false, null);
+    }
 
+    private static void writeRun(FileChannel ch, long offset, ByteBuffer[] bufs) throws IOException {
+        if (bufs.length == 1) {
+            while (bufs[0].hasRemaining())
+                ch.write(bufs[0], offset + bufs[0].position());
+            return;
+        }
+        // FileChannel has no positional gathering write, so the channel's
+        // position is set and used under its lock; every other read and
+        // write of the file is positional and doesn't depend on it
+        synchronized (ch) {
+            ch.position(offset);
+            while (bufs[bufs.length - 1].hasRemaining())
+                ch.write(bufs);
         }
-        page.markDirty(false, null);
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Sets how many bytes the file grows by when an insert needs a new page.
+     * The space for a whole extent is written at once, so the file grows in
+     * large contiguous steps rather than a page at a time.
+     */
+    public synchronized void setExtentSize(int bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("invalid extent size " + bytes);
+        this.extentPages = Math.max(1, bytes / pageSize);
+    }
+
+    /** @return the number of bytes the file grows by at a time */
+    public int getExtentSize() {
+        return extentPages * pageSize;
+    }
+
+    /**
+     * Returns the number of pages in this HeapFile. This is kept in memory
+     * once the file has been opened; the file itself may be longer, since
+     * it grows a whole extent at a time.
      */
     public int numPages() {
-        return (int) Math.ceil(file.length()/ BufferPool.PAGE_SIZE);
+        int n = logicalPages;
+        if (n < 0)
+            n = loadPageCount();
+        return n;
+    }
+
+    /**
+     * Works out the number of pages in use from the file on disk: all of its
+     * pages except for any empty ones at the end, which are the unused part
+     * of the last extent. The first page is always counted.
+     */
+    private synchronized int loadPageCount() {
+        if (logicalPages >= 0)
+            return logicalPages;
+        int pages = (int) (file.length() / pageSize);
+        int n = pages;
+        try {
+            int numSlots = HeapPage.slotsPerPage(tupleDesc, pageSize);
+            ByteBuffer header = ByteBuffer.allocate(HeapPage.headerBytes(numSlots));
+            while (n > 1 && pages - n < extentPages - 1) {
+                header.clear();
+                readPageHeader(n - 1, header);
+                boolean empty = true;
+                for (int j = 0; j < header.position() && empty; j++)
+                    empty = header.get(j) == 0;
+                if (!empty)
+                    break;
+                n--;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("could not read " + file, e);
+        }
+        allocatedPages = pages;
+        logicalPages = n;
+        return n;
+    }
+
+    /**
+     * Adds pages to the end of the file, growing the file by whole extents
+     * when it has no unused pages left. The new pages read as empty until
+     * they are written.
+     *
+     * @param count the number of pages to add
+     * @return the page number of the first new page
+     */
+    protected synchronized int allocatePages(int count) throws IOException {
+        int first = numPages();
+        int needed = first + count;
+        if (needed > allocatedPages) {
+            int target = ((needed + extentPages - 1) / extentPages) * extentPages;
+            // write the zeros so the space is really allocated, in one go
+            FileChannel ch = getChannel();
+            ByteBuffer zeros = HeapPage.allocatePageBuffer((target - allocatedPages) * pageSize, directIO);
+            long offset = (long) allocatedPages * pageSize;
+            while (zeros.hasRemaining())
+                ch.write(zeros, offset + zeros.position());
+            allocatedPages = target;
+        }
+        logicalPages = needed;
+        return first;
+    }
+
+    /**
+     * Adds a page to the end of the file for an insert, which must pass it
+     * to {@link #newPageCached} once the page is in the buffer pool. Until
+     * then the page reads as empty, and {@link #dropLastPage} leaves the
+     * end of the file alone.
+     *
+     * @return the number of the new page
+     */
+    private synchronized int allocateNewPage() throws IOException {
+        int pgNo = allocatePages(1);
+        uncachedNewPages++;
+        return pgNo;
+    }
+
+    private synchronized void newPageCached() {
+        uncachedNewPages--;
+    }
+
+    /**
+     * Locks the specified page for writing, or returns null if Vacuum has
+     * removed it from the end of the file since the caller chose it.
+     */
+    private HeapPage lockPage(TransactionId tid, int pgNo)
+            throws DbException, IOException, TransactionAbortedException {
+        try {
+            return (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pgNo),
+                    Permissions.READ_WRITE);
+        } catch (IllegalArgumentException e) {
+            if (pgNo >= numPages())
+                return null;
+            throw e;
+        }
+    }
+
+    /**
+     * Removes the specified page from the end of the file, if it is still
+     * the last page and no insert is adding a page after it. The caller
+     * must hold the page's exclusive lock and have checked that it is
+     * empty.
+     *
+     * @return true if the page was removed
+     * @see Vacuum
+     */
+    synchronized boolean dropLastPage(int pgNo) throws IOException {
+        if (numPages() != pgNo + 1 || uncachedNewPages > 0)
+            return false;
+        truncate(pgNo);
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null)
+            fsm.truncate(pgNo);
+        return true;
+    }
+
+    /**
+     * Shortens the file to the specified number of pages. The file keeps
+     * the rest of its last extent.
+     */
+    protected synchronized void truncate(int numPages) throws IOException {
+        numPages();
+        logicalPages = numPages;
+        int keep = ((numPages + extentPages - 1) / extentPages) * extentPages;
+        if (keep < allocatedPages) {
+            getChannel().truncate((long) keep * pageSize);
+            allocatedPages = keep;
+        }
+    }
+
+    /**
+     * Forgets the page count and free-space map, so that both are worked
+     * out from the file again. Recovery calls this after writing pages to
+     * the file directly, possibly past its old end.
+     */
+    synchronized void resetPageCount() {
+        logicalPages = -1;
+        freeSpace = null;
+    }
+
+    /**
+     * Returns the free-space map of this file, building it on first use from
+     * the slot headers of the pages on disk.
+     */
+    FreeSpaceMap getFreeSpaceMap() throws IOException {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm == null) {
+            synchronized (this) {
+                if (freeSpace == null)
+                    freeSpace = buildFreeSpaceMap();
+                fsm = freeSpace;
+            }
+        }
+        return fsm;
+    }
+
+    /**
+     * Reads just the header of every page and records the pages that have
+     * an empty slot. Committed pages the buffer pool hasn't written yet are
+     * written first, so the headers on disk are current.
+     */
+    private FreeSpaceMap buildFreeSpaceMap() throws IOException {
+        Database.getBufferPool().flushCommittedPages();
+        FreeSpaceMap fsm = new FreeSpaceMap();
+        int numSlots = HeapPage.slotsPerPage(tupleDesc, pageSize);
+        ByteBuffer header = ByteBuffer.allocate(HeapPage.headerBytes(numSlots));
+        int pages = numPages();
+        for (int i = 0; i < pages; i++) {
+            header.clear();
+            readPageHeader(i, header);
+            int used = 0;
+            for (int j = 0; j < header.position(); j++)
+                used += Integer.bitCount(header.get(j) & 0xFF);
+            fsm.setFree(i, used < numSlots);
+        }
+        return fsm;
+    }
+
+    /**
+     * Reads the first header.remaining() bytes of the specified page, which
+     * hold its slot bitmap, into header.
+     */
+    protected void readPageHeader(int pgNo, ByteBuffer header) throws IOException {
+        FileChannel ch = getChannel();
+        if (directIO) {
+            // direct reads must cover whole blocks
+            ByteBuffer page = HeapPage.allocatePageBuffer(pageSize, true);
+            readPageData(pgNo, page);
+            page.position(0);
+            page.limit(header.remaining());
+            header.put(page);
+            return;
+        }
+        long offset = (long) pgNo * pageSize;
+        while (header.hasRemaining()) {
+            if (ch.read(header, offset + header.position()) < 0)
+                break;
+        }
+    }
+
+    /**
+     * Records whether the specified page has room, after an insert or
+     * delete on it or after an abort restored it. Does nothing if the map
+     * hasn't been built yet, since it will be read from the pages when it
+     * is.
+     */
+    void pageSpaceChanged(int pgNo, boolean hasRoom) {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null)
+            fsm.setFree(pgNo, hasRoom);
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         ArrayList<Page> result = new ArrayList<Page>();
-        for (int i =0; i < numPages(); i ++) {
-            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i), Permissions.READ_ONLY);
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        int pages = numPages();
+        for (int i = fsm.nextFree(0); i >= 0 && i < pages; i = fsm.nextFree(i + 1)) {
+            HeapPage p = lockPage(tid, i);
+            if (p == null)
+                break; // Vacuum dropped it, and any pages after it
             if (p.getNumEmptySlots() > 0) {
-                //Database.getBufferPool().releasePage(tid, p.pid);
-                p = (HeapPage) Database.getBufferPool().getPage(tid, p.pid, Permissions.READ_WRITE);
                 p.insertTuple(t);
                 p.markDirty(true, tid);
+                fsm.setFree(i, p.getNumEmptySlots() > 0);
                 result.add(p);
-                break;
+                return result;
             }
+            // stale hint
+            fsm.setFree(i, false);
         }
 
-        if (result.size() == 0) {
-
-            HeapPage newPage = new HeapPage(new HeapPageId(getId(), numPages()), HeapPage.createEmptyPageData());
+        HeapPage newPage = new HeapPage(new HeapPageId(getId(), allocateNewPage()),
+                HeapPage.createEmptyPageData(pageSize));
+        try {
             newPage.insertTuple(t);
-            result.add(newPage);
-            newPage.markDirty(true, tid);
-            writePage(newPage);
+            // cached as a page of tid, like the new pages of insertTuples
+            Database.getBufferPool().addNewPage(tid, newPage);
+        } finally {
+            newPageCached();
+        }
+        fsm.setFree(newPage.getId().pageNumber(), newPage.getNumEmptySlots() > 0);
+        result.add(newPage);
+        return result;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterable<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> result = new ArrayList<Page>();
+        Iterator<Tuple> it = tuples.iterator();
+        Tuple t = it.hasNext() ? it.next() : null;
+        if (t == null)
+            return result;
+
+        // fill the pages that have room first, locking each one once
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        int pages = numPages();
+        for (int i = fsm.nextFree(0); t != null && i >= 0 && i < pages; i = fsm.nextFree(i + 1)) {
+            HeapPage p = lockPage(tid, i);
+            if (p == null)
+                break; // Vacuum dropped it, and any pages after it
+            if (p.getNumEmptySlots() == 0) {
+                // stale hint
+                fsm.setFree(i, false);
+                continue;
+            }
+            while (t != null && p.getNumEmptySlots() > 0) {
+                p.insertTuple(t);
+                t = it.hasNext() ? it.next() : null;
+            }
+            p.markDirty(true, tid);
+            fsm.setFree(i, p.getNumEmptySlots() > 0);
+            result.add(p);
         }
 
+        // then put the rest on new pages; allocatePages grows the file a
+        // whole extent at a time, so most of these don't touch the disk
+        while (t != null) {
+            HeapPage p = new HeapPage(new HeapPageId(getId(), allocateNewPage()),
+                    HeapPage.createEmptyPageData(pageSize));
+            try {
+                while (t != null && p.getNumEmptySlots() > 0) {
+                    p.insertTuple(t);
+                    t = it.hasNext() ? it.next() : null;
+                }
+                Database.getBufferPool().addNewPage(tid, p);
+            } finally {
+                newPageCached();
+            }
+            fsm.setFree(p.getId().pageNumber(), p.getNumEmptySlots() > 0);
+            result.add(p);
+        }
         return result;
     }
 
@@ -158,10 +649,14 @@ public class HeapFile implements DbFile {
                 p = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
                 p.deleteTuple(t);
                 p.markDirty(true, tid);
+                pageSpaceChanged(p.getId().pageNumber(), true);
                 return p;
 
             } catch (IOException e) {
                 throw new DbException("No such tuple");
+            } catch (IllegalArgumentException e) {
+                // Vacuum dropped the page, which it only does to empty ones
+                throw new DbException("No such tuple");
             }
 
 
@@ -171,22 +666,45 @@ public class HeapFile implements DbFile {
     }
 
     // see DbFile.java for javadocs
-    public DbFileIterator iterator(TransactionId tid) {
+    public DbFileIterator<Tuple> iterator(TransactionId tid) {
         final TransactionId transactionId = tid;
-        DbFileIterator it = new DbFileIterator() {
+        DbFileIterator<Tuple> it = new DbFileIterator<Tuple>() {
 
             private int pageNo = 0;
             private HeapPage page;
             private boolean isOpen = false;
             private Iterator<Tuple> currentIterator;
+            // the one tuple returned for every row of the scan
+            private HeapPageTuple cursor;
+            private ReadAhead readAhead = new ReadAhead(HeapFile.this);
+            // frames the scan reads into if the table is large; see
+            // BufferPool.isBulkRead
+            private BufferPool.BulkReadRing ring;
+
+            private Iterator<Tuple> pageIterator(HeapPage page) {
+                if (cursor == null)
+                    cursor = page.newCursor();
+                return page.iterator(cursor);
+            }
+
             @Override
             public void open() {
                 isOpen = true;
                 pageNo = 0;
+                page = null;
+                readAhead.reset();
+                if (numPages() == 0)
+                    return;
+                BufferPool pool = Database.getBufferPool();
+                if (ring == null && pool.isBulkRead(numPages())) {
+                    ring = pool.newBulkReadRing();
+                    readAhead.setRing(ring);
+                }
 
                 try {
-                    page = (HeapPage) Database.getBufferPool().getPage(transactionId,new HeapPageId(getId(), pageNo),Permissions.READ_ONLY);
-                    currentIterator = page.iterator();
+                    readAhead.pageVisited(pageNo);
+                    page = (HeapPage) pool.getPage(transactionId, new HeapPageId(getId(), pageNo), Permissions.READ_ONLY, ring);
+                    currentIterator = pageIterator(page);
                 } catch (TransactionAbortedException e) {
                     e.printStackTrace();
                 } catch (DbException e) {
@@ -218,18 +736,25 @@ public class HeapFile implements DbFile {
                             break;
 
                         try {
-                            page = (HeapPage) Database.getBufferPool().getPage(transactionId, new HeapPageId(getId(), pageNo), Permissions.READ_ONLY);
+                            readAhead.pageVisited(pageNo);
+                            page = (HeapPage) Database.getBufferPool().getPage(transactionId, new HeapPageId(getId(), pageNo), Permissions.READ_ONLY, ring);
 
                             if (page == null) {
                                 return false;
                             } else {
-                                currentIterator = page.iterator();
+                                currentIterator = pageIterator(page);
 
                                 if (currentIterator.hasNext()) {
                                     return true;
                                 }
                             }
 
+                        } catch (IllegalArgumentException e) {
+                            // Vacuum dropped the page while we waited for
+                            // its lock; it was the last one
+                            if (pageNo >= numPages())
+                                return false;
+                            throw e;
                         } catch (TransactionAbortedException e) {
                             //e.printStackTrace();
                         } catch (DbException e) {
@@ -274,6 +799,11 @@ public class HeapFile implements DbFile {
             @Override
             public void close() {
                 isOpen = false;
+                if (ring != null) {
+                    ring.close();
+                    ring = null;
+                    readAhead.setRing(null);
+                }
             }
         };
         return it;
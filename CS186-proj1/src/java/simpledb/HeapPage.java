@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -16,11 +18,25 @@ public class HeapPage implements Page {
 
     HeapPageId pid;
     TupleDesc td;
-    byte header[];
-    Tuple tuples[];
+    int pageSize;
     int numSlots;
 
-    byte[] oldData;
+    // the page exactly as it is laid out on disk: header bytes, then the
+    // tuple slots. tuples are decoded from it on demand and fields are
+    // written into it in place.
+    ByteBuffer data;
+    // decoded tuples, filled in as slots are read
+    Tuple tuples[];
+    // offset of each field within a tuple
+    int fieldOffsets[];
+    int headerSize;
+    // true while data is also referenced by the before image or by tuples
+    // that have been handed out; data is copied before it is next modified
+    // so they keep their contents
+    private boolean dataShared;
+
+    // contents of the page as of the last setBeforeImage; never modified
+    ByteBuffer oldData;
 
     TransactionId dirtyTransactionID;
 
@@ -29,46 +45,98 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the page size of the table, given by
+     * {@link Catalog#getPageSize}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * Tuples are not decoded here; the page keeps a copy of the bytes and
+     * decodes a tuple, or a single field of it, when it is first accessed.
+     * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#PAGE_SIZE
+     * @see BufferPool#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, wrap(id, data));
+    }
+
+    /** Wraps data, padding it to the table's page size if it is short. */
+    private static ByteBuffer wrap(HeapPageId id, byte[] data) {
+        int size = Database.getCatalog().getPageSize(id.getTableId());
+        return ByteBuffer.wrap(data.length == size ? data : Arrays.copyOf(data, size));
+    }
+
+    /**
+     * Create a HeapPage over a buffer holding the page as laid out on disk
+     * (see {@link #HeapPage(HeapPageId, byte[])}). The page takes the buffer
+     * over without copying it; the buffer may be a heap or a direct buffer
+     * and must not be modified by the caller afterwards.
+     */
+    HeapPage(HeapPageId id, ByteBuffer data) {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = data.capacity();
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        this.headerSize = getHeaderSize();
+        this.data = data;
+        this.tuples = new Tuple[numSlots];
+
+        fieldOffsets = new int[td.numFields()];
+        int off = 0;
+        for (int j = 0; j < fieldOffsets.length; j++) {
+            fieldOffsets[j] = off;
+            off += td.getFieldType(j).getLen();
         }
-        dis.close();
 
         setBeforeImage();
     }
 
+    /**
+     * Memory alignment of direct page buffers, so they can be read and
+     * written with direct I/O (see {@link HeapFile#setDirectIO}).
+     */
+    static final int BUFFER_ALIGNMENT = 4096;
+
+    /**
+     * Allocates a zeroed buffer for one page. Direct buffers are aligned to
+     * {@link #BUFFER_ALIGNMENT}.
+     *
+     * @param pageSize bytes per page
+     * @param direct true to allocate a direct buffer rather than a heap one
+     */
+    static ByteBuffer allocatePageBuffer(int pageSize, boolean direct) {
+        if (!direct)
+            return ByteBuffer.allocate(pageSize);
+        int rounded = (pageSize + BUFFER_ALIGNMENT - 1) / BUFFER_ALIGNMENT * BUFFER_ALIGNMENT;
+        ByteBuffer buf = ByteBuffer.allocateDirect(rounded + BUFFER_ALIGNMENT)
+                .alignedSlice(BUFFER_ALIGNMENT);
+        buf.limit(pageSize);
+        return buf.slice();
+    }
+
     /** Retrieve the number of tuples on this page.
      @return the number of tuples on this page
      */
     private int getNumTuples() {
-        return (int) Math.floor(BufferPool.PAGE_SIZE * 8 / (td.getSize() * 8 + 1));
+        return slotsPerPage(td, pageSize);
+    }
+
+    /**
+     * @return the number of tuple slots on a page of pageSize bytes holding
+     *   tuples described by td
+     */
+    static int slotsPerPage(TupleDesc td, int pageSize) {
+        return (int) Math.floor(pageSize * 8 / (td.getSize() * 8 + 1));
+    }
+
+    /** @return the number of header bytes on a page with numSlots slots */
+    static int headerBytes(int numSlots) {
+        return (int) Math.ceil((double) numSlots / 8);
     }
 
     /**
@@ -76,24 +144,19 @@ public class HeapPage implements Page {
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      */
     private int getHeaderSize() {
-        return (int ) Math.ceil((double)numSlots/8);
+        return headerBytes(numSlots);
     }
 
     /** Return a view of this page before it was modified
      -- used by recovery */
     public HeapPage getBeforeImage(){
-        try {
-            return new HeapPage(pid,oldData);
-        } catch (IOException e) {
-            e.printStackTrace();
-            //should never happen -- we parsed it OK before!
-            System.exit(1);
-        }
-        return null;
+        return new HeapPage(pid, oldData);
     }
 
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        // share the current bytes; the next modification copies them
+        oldData = data;
+        dataShared = true;
     }
 
     /**
@@ -104,38 +167,45 @@ public class HeapPage implements Page {
         //throw new UnsupportedOperationException("implement this");
     }
 
+    /** @return the offset of the first byte of the specified slot */
+    private int slotOffset(int slotId) {
+        return headerSize + slotId * td.getSize();
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in the specified slot, decoding it from the page
+     * bytes if it hasn't been read yet. Fields of the returned tuple are
+     * themselves only decoded when accessed.
+     *
+     * @throws NoSuchElementException if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    public Tuple getTuple(int slotId) throws NoSuchElementException {
+        if (!isSlotUsed(slotId))
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new HeapPageTuple(td, data, slotOffset(slotId), fieldOffsets);
+            t.setRecordId(new RecordId(pid, slotId));
+            tuples[slotId] = t;
+            dataShared = true;
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    /**
+     * Copies the page bytes if tuples decoding from them have been handed
+     * out, so that a modification doesn't change those tuples.
+     */
+    private void beforeModify() {
+        if (dataShared) {
+            // a read-only buffer is a slice of a file mapping; its copy
+            // needn't be direct
+            ByteBuffer copy = allocatePageBuffer(data.capacity(), data.isDirect() && !data.isReadOnly());
+            copy.put(getPageBuffer());
+            copy.clear();
+            data = copy;
+            dataShared = false;
         }
-
-        return t;
     }
 
     /**
@@ -150,64 +220,21 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        byte[] bytes = new byte[data.capacity()];
+        getPageBuffer().get(bytes);
+        return bytes;
+    }
 
-        return baos.toByteArray();
+    /**
+     * Returns a read-only view of the bytes of this page, positioned at the
+     * start of the page, that can be written to disk as is. The view shares
+     * the page's buffer rather than copying it and reflects the page as of
+     * this call until the page is next modified.
+     */
+    public ByteBuffer getPageBuffer() {
+        ByteBuffer view = data.asReadOnlyBuffer();
+        view.clear();
+        return view;
     }
 
     /**
@@ -220,8 +247,18 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Generates a byte array corresponding to an empty HeapPage of the
+     * specified size.
+     *
+     * @param pageSize bytes per page
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -235,12 +272,19 @@ public class HeapPage implements Page {
         if(t.getRecordId() == null){
             throw new DbException("No such tuple");
         }
-        if (!isSlotUsed(t.getRecordId().tupleno()))
+        int slotId = t.getRecordId().tupleno();
+        if (slotId < 0 || slotId >= numSlots || !isSlotUsed(slotId))
             throw new DbException("No such tuple");
         if (t.getRecordId().getPageId() != pid)
             throw new DbException("No such tuple");
 
-        markSlotUsed(t.getRecordId().tupleno(), false);
+        beforeModify();
+        markSlotUsed(slotId, false);
+        // empty slots are kept zeroed on disk
+        int off = slotOffset(slotId);
+        for (int j = 0; j < td.getSize(); j++)
+            data.put(off + j, (byte) 0);
+        tuples[slotId] = null;
         t.setRecordId(null);
     }
 
@@ -254,30 +298,24 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         if (getNumEmptySlots() == 0)
             throw new DbException("Page full");
+        if (t.getTupleDesc().numFields() != td.numFields())
+            throw new DbException("tupledesc is mismatch");
+        for (int j = 0; j < td.numFields(); j++) {
+            if (t.getField(j) == null || t.getField(j).getType() != td.getFieldType(j))
+                throw new DbException("tupledesc is mismatch");
+        }
         for (int i =0; i<numSlots; i++){
             if (!isSlotUsed(i)) {
+                beforeModify();
+                int off = slotOffset(i);
+                for (int j = 0; j < td.numFields(); j++)
+                    t.getField(j).serialize(data, off + fieldOffsets[j]);
                 t.setRecordId(new RecordId(pid, i));
                 markSlotUsed(i, true);
                 tuples[i] = t;
                 return;
             }
         }
-
-        /*
-        for (int i =0 ; i < header.length ; i++) {
-            if (header[i] != 127) {
-                Byte b = header[i];
-                for (int j = 0; j <8; j ++){
-                    if ((b >> 7-(i % 8)) % 1 == 0) {
-                        t.setRecordId(new RecordId(pid, i * 8 + j));
-                        markSlotUsed(i * 8 + j, true);
-                        markSlotUsed(i * 8 + j, true);
-                        return;
-                    }
-                }
-            }
-        }
-        */
     }
 
     /**
@@ -302,15 +340,9 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        //referenced from http://stackoverflow.com/questions/12310017/how-to-convert-a-byte-to-its-binary-string-representation
         int filledSlots = 0;
-        for (Byte b : header) {
-            String bits = String.format("%8s", Integer.toBinaryString(b & 0xFF)).replace(' ', '0');
-            for (int i = 0; i < 8; i++) {
-                if (bits.substring(7-(i % 8),7-(i % 8)+1).equals("1"))
-                    filledSlots++;
-            }
-        }
+        for (int i = 0; i < headerSize; i++)
+            filledSlots += Integer.bitCount(data.get(i) & 0xFF);
         return numSlots - filledSlots;
     }
 
@@ -318,32 +350,32 @@ public class HeapPage implements Page {
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
-        Byte b = header[i/8];
-        String bits = String.format("%8s", Integer.toBinaryString(b & 0xFF)).replace(' ', '0');
-        if (bits.substring(7-(i % 8),7-(i % 8)+1).equals("1"))
-            return true;
-        return false;
+        return ((data.get(i / 8) >> (i % 8)) & 1) == 1;
     }
 
     /**
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
-        Byte b = header[i/8];
+        byte b = data.get(i / 8);
         if (value) {
             b = (byte) (b | (1 << (i % 8)));
         } else {
             b = (byte) (b & ~(1 << (i % 8)));
         }
-        header[i/8] = b;
-
-
-        //String bits = String.format("%8s", Integer.toBinaryString(b & 0xFF)).replace(' ', '0');
+        data.put(i / 8, b);
+    }
 
-        //String binaryString = bits.substring(0, 7-(i % 8)) +(value ? "1" : "0") +  bits.substring(7-(i % 8)+1,8);
-        //System.out.println(binaryString);
+    /** @return the first used slot at or after slot i, or numSlots if none */
+    private int nextUsedSlot(int i) {
+        return nextUsedSlot(data, i);
+    }
 
-        //header[i/8] = Byte.parseByte(binaryString, 2);
+    /** Like {@link #nextUsedSlot(int)}, reading the header from bytes. */
+    private int nextUsedSlot(ByteBuffer bytes, int i) {
+        while (i < numSlots && ((bytes.get(i / 8) >> (i % 8)) & 1) == 0)
+            i++;
+        return i;
     }
 
     /**
@@ -351,53 +383,23 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        /*
-        Iterator<Tuple> it = new Iterator<Tuple>() {
-            final int tupleNumSlots = numSlots;
-            private int currentIndex = 0;
+        return new Iterator<Tuple>() {
+
+            // next used slot to return
+            private int slot = nextUsedSlot(0);
 
             @Override
             public boolean hasNext() {
-
-                if (currentIndex >= numSlots){
-                    return false;}
-
-                do {
-                    if (isSlotUsed(currentIndex))
-                        return true;
-                    currentIndex++;
-
-                } while (currentIndex < numSlots);
-
-                return false;
+                return slot < numSlots;
             }
 
             @Override
-            public Tuple next() throws  NoSuchElementException{
-                System.out.println(hasNext());
-
-                if (currentIndex >= numSlots)
+            public Tuple next() {
+                if (!hasNext())
                     throw new NoSuchElementException();
-                int current;
-
-                if (isSlotUsed(currentIndex)) {
-                    current = currentIndex;
-                    currentIndex++;
-                } else {
-                    while (currentIndex < numSlots) {
-                        currentIndex++;
-                        if (isSlotUsed(currentIndex))
-                            break;
-                    }
-                    if (currentIndex >= numSlots)
-                        throw new NoSuchElementException();
-
-                    current = currentIndex;
-                    currentIndex++;
-                }
-
-                System.out.println(tuples[current]);
-                return tuples[current];
+                Tuple tuple = getTuple(slot);
+                slot = nextUsedSlot(slot + 1);
+                return tuple;
             }
 
             @Override
@@ -405,60 +407,55 @@ public class HeapPage implements Page {
                 throw new UnsupportedOperationException();
             }
         };
-        return it;
-        */
+    }
 
-        Iterator<Tuple> tupleIterator = new Iterator<Tuple>() {
 
-            //keeps track of the position
-            int ticker = 0;
+    /**
+     * @return a cursor for {@link #iterator(HeapPageTuple)} over pages of
+     *   this page's table
+     */
+    HeapPageTuple newCursor() {
+        return new HeapPageTuple(td, fieldOffsets);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that moves the
+     * specified cursor to each one in turn and returns it, rather than
+     * returning a tuple per slot. The iterator returns the page as of this
+     * call; modifying the page afterwards doesn't change what it returns.
+     *
+     * @param cursor a cursor from {@link #newCursor} on a page of the same
+     *   table, which may be shared by iterators over successive pages
+     */
+    Iterator<Tuple> iterator(final HeapPageTuple cursor) {
+        // the cursor reads data directly, so it has to be copied before it
+        // is next modified
+        dataShared = true;
+        final ByteBuffer bytes = data;
+        return new Iterator<Tuple>() {
+
+            // next used slot to return
+            private int slot = nextUsedSlot(bytes, 0);
 
             @Override
             public boolean hasNext() {
-                // if we have more than the designated number of tuples, return false
-                if(ticker >= numSlots){
-                    return false;
-                }
-                // loop throug the header and find a true
-                for(int i = ticker; i < numSlots; i++ ){
-                    if(isSlotUsed(i)){
-                        return true;
-                    }
-                }
-                return false;
+                return slot < numSlots;
             }
 
             @Override
             public Tuple next() {
-                int flag = 0;
-                Tuple tuple;
-                if(!hasNext()){
+                if (!hasNext())
                     throw new NoSuchElementException();
-                }
-                //if we have a tuple at our current spot, return it
-                else if (isSlotUsed(ticker)) {
-                    flag = ticker;
-                }
-                // if we don't have something at our current spot, keep on searching
-                else{
-                    for(int i = ticker; i < numSlots; i++){
-                        if(isSlotUsed(i)){
-                            flag = i;
-                            break;
-                        }
-                    }
-                }
-                tuple = tuples[flag];
-                ticker++;
-                return tuple;
+                cursor.moveTo(bytes, slotOffset(slot), pid, slot);
+                slot = nextUsedSlot(bytes, slot + 1);
+                return cursor;
             }
 
-            public void remove(){
-
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
             }
         };
-        return tupleIterator;
     }
 
 }
-
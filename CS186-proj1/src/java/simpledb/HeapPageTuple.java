@@ -0,0 +1,145 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A Tuple read from a HeapPage whose fields are decoded from the page bytes
+ * the first time they are accessed, so operators that look at one or two
+ * columns of a row never pay for decoding the rest.
+ * <p>
+ * The bytes must not change underneath the tuple; HeapPage copies its data
+ * before modifying it once tuples have been handed out.
+ * <p>
+ * A HeapPageTuple can also be a cursor: table scans move a single one from
+ * slot to slot with {@link #moveTo} instead of creating a tuple per row, and
+ * its RecordId is only created if it is asked for. Operators that keep a
+ * tuple after asking their child for the next one must keep
+ * {@link Tuple#retain} of it instead.
+ *
+ * @see HeapPage#iterator
+ */
+class HeapPageTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient ByteBuffer data;
+    private int offset;
+    private final int[] fieldOffsets;
+
+    // for cursors, the slot the tuple is at; its RecordId is made on demand
+    private final boolean cursor;
+    private HeapPageId pid;
+    private int slot;
+
+    /**
+     * @param td the schema of the tuple
+     * @param data the page bytes
+     * @param offset the offset of the tuple's first byte in data
+     * @param fieldOffsets the offset of each field relative to the tuple
+     */
+    HeapPageTuple(TupleDesc td, ByteBuffer data, int offset, int[] fieldOffsets) {
+        super(td);
+        this.data = data;
+        this.offset = offset;
+        this.fieldOffsets = fieldOffsets;
+        this.cursor = false;
+    }
+
+    /**
+     * Creates a cursor, which must be moved to a slot before it is used.
+     *
+     * @param td the schema of the tuple
+     * @param fieldOffsets the offset of each field relative to the tuple
+     */
+    HeapPageTuple(TupleDesc td, int[] fieldOffsets) {
+        super(td);
+        this.fieldOffsets = fieldOffsets;
+        this.cursor = true;
+    }
+
+    /**
+     * Points this cursor at the tuple in the specified slot, forgetting the
+     * fields decoded from the previous one.
+     *
+     * @param data the page bytes
+     * @param offset the offset of the tuple's first byte in data
+     */
+    void moveTo(ByteBuffer data, int offset, HeapPageId pid, int slot) {
+        this.data = data;
+        this.offset = offset;
+        this.pid = pid;
+        this.slot = slot;
+        for (int i = 0; i < fieldOffsets.length; i++)
+            super.setField(i, null);
+        super.setRecordId(null);
+    }
+
+    @Override
+    public void setRecordId(RecordId rid) {
+        pid = null;
+        super.setRecordId(rid);
+    }
+
+    @Override
+    public RecordId getRecordId() {
+        RecordId rid = super.getRecordId();
+        if (rid == null && pid != null) {
+            rid = new RecordId(pid, slot);
+            super.setRecordId(rid);
+        }
+        return rid;
+    }
+
+    /**
+     * Returns this tuple, or for a cursor, a tuple over the same bytes that
+     * stays where it is when the cursor moves on.
+     */
+    @Override
+    public Tuple retain() {
+        if (!cursor)
+            return this;
+        HeapPageTuple t = new HeapPageTuple(getTupleDesc(), data, offset, fieldOffsets);
+        t.setRecordId(getRecordId());
+        return t;
+    }
+
+    @Override
+    public Field getField(int i) {
+        Field f = super.getField(i);
+        if (f == null && data != null) {
+            f = getTupleDesc().getFieldType(i).parse(data, offset + fieldOffsets[i]);
+            super.setField(i, f);
+        }
+        return f;
+    }
+
+    @Override
+    public int getInt(int i) {
+        // read int columns straight from the page instead of decoding them
+        if (super.getField(i) == null && data != null && getTupleDesc().getFieldType(i) == Type.INT_TYPE)
+            return data.getInt(offset + fieldOffsets[i]);
+        return ((IntField) getField(i)).getValue();
+    }
+
+    @Override
+    public long getLong(int i) {
+        if (super.getField(i) == null && data != null && getTupleDesc().getFieldType(i) == Type.LONG_TYPE)
+            return data.getLong(offset + fieldOffsets[i]);
+        return ((LongField) getField(i)).getValue();
+    }
+
+    @Override
+    public double getDouble(int i) {
+        if (super.getField(i) == null && data != null && getTupleDesc().getFieldType(i) == Type.DOUBLE_TYPE)
+            return data.getDouble(offset + fieldOffsets[i]);
+        return ((DoubleField) getField(i)).getValue();
+    }
+
+    private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
+        // decode everything so the serialized form doesn't need the page
+        for (int i = 0; i < getTupleDesc().numFields(); i++)
+            getField(i);
+        getRecordId();
+        out.defaultWriteObject();
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 /**
  * Inserts tuples read from the child operator into the tableid specified in the
@@ -20,6 +21,9 @@ public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Number of child tuples handed to the BufferPool at once. */
+    static final int BATCH_SIZE = 4096;
+
     /**
      * Constructor.
      * 
@@ -85,7 +89,7 @@ public class Insert extends Operator {
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
      * @see Database#getBufferPool
-     * @see BufferPool#insertTuple
+     * @see BufferPool#insertTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 
@@ -96,13 +100,18 @@ public class Insert extends Operator {
         //create a tuple
         Tuple tup = new Tuple(td);
 
-        // determine if we can insert a tuple from child
+        // insert the child's tuples a batch at a time
+        ArrayList<Tuple> batch = new ArrayList<Tuple>(BATCH_SIZE);
         while(child.hasNext()){
-            try {
-                Database.getBufferPool().insertTuple(t,tableid,child.next());
-                ticker++;
-            } catch (IOException e) {
-                e.printStackTrace();
+            batch.add(child.next().retain());
+            if (batch.size() == BATCH_SIZE || !child.hasNext()) {
+                try {
+                    Database.getBufferPool().insertTuples(t,tableid,batch);
+                    ticker += batch.size();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                batch.clear();
             }
         }
         tup.setField(0,new IntField(ticker));
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single integer.
@@ -41,6 +42,10 @@ public class IntField implements Field {
         dos.writeInt(value);
     }
 
+    public void serialize(ByteBuffer buf, int offset) {
+        buf.putInt(offset, value);
+    }
+
     /**
      * Compare the specified field to the value of this Field.
      * Return semantics are as specified by Field.compare
@@ -49,29 +54,35 @@ public class IntField implements Field {
      * @see Field#compare
      */
     public boolean compare(Predicate.Op op, Field val) {
+        return compare(op, value, ((IntField) val).value);
+    }
 
-        IntField iVal = (IntField) val;
-
+    /**
+     * Compares two int values the way {@link #compare(Predicate.Op, Field)}
+     * compares two IntFields, for callers that have the values but not the
+     * Fields.
+     */
+    public static boolean compare(Predicate.Op op, int value, int other) {
         switch (op) {
         case EQUALS:
-            return value == iVal.value;
+            return value == other;
         case NOT_EQUALS:
-            return value != iVal.value;
+            return value != other;
 
         case GREATER_THAN:
-            return value > iVal.value;
+            return value > other;
 
         case GREATER_THAN_OR_EQ:
-            return value >= iVal.value;
+            return value >= other;
 
         case LESS_THAN:
-            return value < iVal.value;
+            return value < other;
 
         case LESS_THAN_OR_EQ:
-            return value <= iVal.value;
+            return value <= other;
 
     case LIKE:
-        return value == iVal.value;
+        return value == other;
         }
 
         return false;
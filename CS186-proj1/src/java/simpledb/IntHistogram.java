@@ -36,7 +36,7 @@ public class IntHistogram {
 
         //determine the span of each histogram.
         // ie min = 1, max = 10, span = 3.
-        double temp = ((max - min + 1));
+        double temp = ((long) max - min + 1);
         this.span = (int)Math.ceil(temp / bucketCount);
 
         ntups = 0;
@@ -58,16 +58,45 @@ public class IntHistogram {
 
     }
 
-    public int determineBucket(int v){
-        if(v < 0){
-            v = v + Math.abs(min);
-        }
-        else{
-            v = v - min;
+    /**
+     * Adds the values counted by another histogram to this one, as when
+     * histograms built over parts of a table are combined. Each bucket of
+     * other is spread over the buckets of this histogram in proportion to
+     * how much of its range they cover, so this is exact only if the bucket
+     * boundaries line up. Values outside [min, max] go to the first or last
+     * bucket.
+     */
+    void merge(IntHistogram other) {
+        for (int j = 0; j < other.bucketCount; j++) {
+            int count = other.bucketList[j];
+            if (count == 0)
+                continue;
+            long lo = Math.max((long) other.min + (long) j * other.span, min);
+            long hi = Math.min((long) other.min + (long) (j + 1) * other.span - 1, other.max);
+            lo = Math.min(Math.max(lo, min), max);
+            hi = Math.min(Math.max(hi, lo), max);
+            int first = (int) ((lo - min) / span);
+            int last = Math.min((int) ((hi - min) / span), bucketCount - 1);
+            first = Math.min(first, last);
+            long width = hi - lo + 1;
+            int given = 0;
+            for (int i = first; i <= last; i++) {
+                long bLo = Math.max((long) min + (long) i * span, lo);
+                long bHi = Math.min((long) min + (long) (i + 1) * span - 1, hi);
+                int share = i == last ? count - given : (int) (count * (bHi - bLo + 1) / width);
+                bucketList[i] += share;
+                given += share;
+            }
         }
-        int bi = v / span;
-        if(bi<0){bi = 0;}
-        else if(bi>bucketCount){bi=bucketCount - 1;}
+        ntups += other.ntups;
+    }
+
+    public int determineBucket(int v){
+        // in a long, so wide ranges don't overflow
+        long offset = (long) v - min;
+        int bi = (int) (offset / span);
+        if(offset<0){bi = 0;}
+        else if(bi>=bucketCount){bi=bucketCount - 1;}
         return bi;
     }
 
@@ -15,16 +15,15 @@ public class IntegerAggregator implements Aggregator {
     private Type gbfieldtype;
     private int afield;
     private Op what;
-    private int avgTicker;
-    private int avgSum;
     private boolean isOpen;
     private TupleDesc td;
 
-    // create hashmaps to store aggregate values
-    private HashMap<Field,Field> intFieldCount;
-    // This will be used for the average calculations
-    private HashMap<Field,Field> intAvgCount;
-    private HashMap<Field,Field> intSumCount;
+    // the group key used when there is no grouping
+    private static final Field NO_GROUP = new IntField(Aggregator.NO_GROUPING);
+
+    // one accumulator per group, updated in place so merging a tuple doesn't
+    // allocate: {min or max so far, count, sum}
+    private HashMap<Field,int[]> groups;
     /**
      * Aggregate constructor
      *
@@ -45,11 +44,7 @@ public class IntegerAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
-        this.intFieldCount = new HashMap<Field,Field>();
-        this.intAvgCount = new HashMap<Field,Field>();
-        this.intSumCount = new HashMap<Field,Field>();
-        this.avgTicker = 0;
-        this.avgSum = 0;
+        this.groups = new HashMap<Field,int[]>();
         this.isOpen = false;
     }
 
@@ -63,7 +58,6 @@ public class IntegerAggregator implements Aggregator {
     public void mergeTupleIntoGroup(Tuple tup) {
 
         Field tupleGroup;
-        IntField tupleValue;
 
         // variables for our td
         Type[] typeAr;
@@ -86,88 +80,50 @@ public class IntegerAggregator implements Aggregator {
 
         // grouping logic
         if(gbfield == Aggregator.NO_GROUPING){
-            tupleGroup = new IntField(Aggregator.NO_GROUPING);
+            tupleGroup = NO_GROUP;
         }
         else {
             tupleGroup = tup.getField(gbfield);
         }
-        tupleValue = (IntField)tup.getField(afield);
-
-        IntField tva = (IntField)tupleValue;
-
-        int tv = tva.getValue();
-
-        //value of tuplegroup
-        IntField tupGValue = (IntField) intFieldCount.get(tupleGroup);
-
+        int tv = tup.getInt(afield);
 
+        int[] acc = groups.get(tupleGroup);
+        if(acc == null){
+            groups.put(tupleGroup, new int[]{tv, 1, tv});
+            return;
+        }
         switch(what){
             case MIN:
-                // if the value doesn't exist in the hashmap, put it in the hashmap
-                if(intFieldCount.get(tupleGroup) == null){
-                    intFieldCount.put(tupleGroup, new IntField(tupleValue.getValue()));
-                }
-                // if the current tuple is less than the current min, update the hashmap
-                else if(tupGValue.getValue() > tv){
-                        intFieldCount.put(tupleGroup,new IntField(tupleValue.getValue()));
+                if(tv < acc[0]){
+                    acc[0] = tv;
                 }
                 break;
             case MAX:
-                // if the value doesn't exist in the hashmap, put it in the hashmap
-                if(intFieldCount.get(tupleGroup) == null){
-                    intFieldCount.put(tupleGroup,new IntField(tupleValue.getValue()));
-                }
-                // if the current tuple is greater than the current min, update the hashmap
-                else if(tupGValue.getValue() < tv){
-                    intFieldCount.put(tupleGroup,new IntField(tupleValue.getValue()));
+                if(tv > acc[0]){
+                    acc[0] = tv;
                 }
                 break;
-            case SUM:
-                // if the value doesn't exist in the hashmap, put it in the hashmap
-                if(intFieldCount.get(tupleGroup) == null){
-                    avgSum = tupleValue.getValue();
-                    intFieldCount.put(tupleGroup,new IntField(avgSum));
-                }
-                // else we add our tupleValue to the existing tuple sum
-                else{
-                    intFieldCount.put(tupleGroup,new IntField(tupGValue.getValue() + tv));
-                }
+            default:
                 break;
-            case AVG:
-                // if the value doesn't exist in the hashmap, put it in the hashmap
-                if(intFieldCount.get(tupleGroup) == null){
-                    avgSum = tupleValue.getValue();
-                    intFieldCount.put(tupleGroup,new IntField(avgSum));
-                    intAvgCount.put(tupleGroup,new IntField(1));
-                    intSumCount.put(tupleGroup,new IntField(avgSum));
-                }
-                // else we add our tupleValue to the existing tuple sum
-                else{
-                    // we need to make calculations to find a enw average and maintain our hashtables
-                    IntField count = (IntField)intAvgCount.get(tupleGroup);
-                    IntField sum = (IntField)intSumCount.get(tupleGroup);
-
-                    int newCount = count.getValue() + 1;
-                    int newSum = sum.getValue() + tupleValue.getValue();
-                    int avg = newSum / newCount;
-
-                    intFieldCount.put(tupleGroup,new IntField(avg));
-                    intAvgCount.put(tupleGroup,new IntField(newCount));
-                    intSumCount.put(tupleGroup,new IntField(newSum));
+        }
+        acc[1]++;
+        acc[2] += tv;
+    }
 
-                }
-                break;
+    /** Returns the value of the aggregate for a group's accumulator. */
+    private int aggregateValue(int[] acc) {
+        switch(what){
+            case MIN:
+            case MAX:
+                return acc[0];
+            case SUM:
+                return acc[2];
+            case AVG:
+                return acc[2] / acc[1];
             case COUNT:
-                // if the value doesn't exist in the hashmap, put it in the hashmap
-                if(intFieldCount.get(tupleGroup) == null){
-                    intFieldCount.put(tupleGroup,new IntField(1));
-                }
-                // else we add 1 to the existing tuple sum
-                else{
-                    intFieldCount.put(tupleGroup,new IntField(tupGValue.getValue() + 1));
-                }
-                break;
+                return acc[1];
         }
+        throw new IllegalStateException("unknown aggregate " + what);
     }
 
     /**
@@ -182,20 +138,21 @@ public class IntegerAggregator implements Aggregator {
     public DbIterator iterator() {
 
         // some code goes here
-        Iterator iterator = intFieldCount.entrySet().iterator();
-        Tuple[] tupleIt = new Tuple[intFieldCount.size()];
+        Iterator<Map.Entry<Field,int[]>> iterator = groups.entrySet().iterator();
+        Tuple[] tupleIt = new Tuple[groups.size()];
         int i = 0;
 
         while(iterator.hasNext()){
-            Map.Entry pair = (Map.Entry)iterator.next();
+            Map.Entry<Field,int[]> pair = iterator.next();
+            Field value = new IntField(aggregateValue(pair.getValue()));
 //            System.out.println(pair.getKey() + " = " + pair.getValue());
             Tuple tup = new Tuple(td);
             if(Aggregator.NO_GROUPING == gbfield){
-                tup.setField(0, (Field) pair.getValue());
+                tup.setField(0, value);
             }
             else{
-                tup.setField(0, (Field) pair.getKey());
-                tup.setField(1, (Field) pair.getValue());
+                tup.setField(0, pair.getKey());
+                tup.setField(1, value);
             }
 
         tupleIt[i] = (tup);
@@ -12,6 +12,7 @@ public class Join extends Operator {
     private DbIterator child1;
     private DbIterator child2;
     private Tuple t1;
+    private transient TupleDesc td;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -88,10 +89,9 @@ public class Join extends Operator {
      *      implementation logic.
      */
     public TupleDesc getTupleDesc() {
-
-
-
-        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        if (td == null)
+            td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        return td;
     }
 
     public void open() throws DbException, NoSuchElementException,
@@ -148,22 +148,7 @@ public class Join extends Operator {
             while (child2.hasNext()) {
                 t2 = child2.next();
                 if (p.filter(t1,t2)) {
-                    Tuple t3 = new Tuple(getTupleDesc());
-                    int i = 0;
-
-                    Iterator<Field> it = t1.fields();
-                    while (it.hasNext()) {
-                        t3.setField(i, it.next());
-                        i++;
-                    }
-
-                    it = t2.fields();
-                    while (it.hasNext()) {
-                        t3.setField(i, it.next());
-                        i++;
-                    }
-
-                    return t3;
+                    return CompactTuple.merge(getTupleDesc(), t1, t2);
                 }
             }
 
@@ -186,6 +171,7 @@ public class Join extends Operator {
     public void setChildren(DbIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        this.td = null;
     }
 
 }
@@ -41,6 +41,13 @@ public class JoinPredicate implements Serializable {
     public boolean filter(Tuple t1, Tuple t2) {
         if ((t1 == null) || (t2 == null))
             return false;
+        Type type = t1.getTupleDesc().getFieldType(field1);
+        if (type == Type.INT_TYPE)
+            return IntField.compare(op, t1.getInt(field1), t2.getInt(field2));
+        if (type == Type.LONG_TYPE)
+            return LongField.compare(op, t1.getLong(field1), t2.getLong(field2));
+        if (type == Type.DOUBLE_TYPE)
+            return DoubleField.compare(op, t1.getDouble(field1), t2.getDouble(field2));
         return t1.getField(field1).compare(op, t2.getField(field2));
     }
     
@@ -153,7 +153,8 @@ public class LockManager {
 
     public boolean isSharedLocked(PageId pid, TransactionId tid) {
         HashSet<TransactionId> set = shared.get(pid);
-        if (set == null || set.contains(tid) || set.size() > 1)
+        // an empty set is left behind once every reader has released
+        if (set == null || set.isEmpty() || set.contains(tid) || set.size() > 1)
             return false;
         return true;
     }
@@ -162,6 +163,11 @@ public class LockManager {
         return exclusive.get(pid) != tid && exclusive.get(pid) != null;
     }
 
+    /** @return true if some transaction holds an exclusive lock on pid */
+    public boolean isWriteLocked(PageId pid) {
+        return exclusive.containsKey(pid);
+    }
+
     public void removeFromShared(PageId pid, TransactionId tid){
         HashSet<TransactionId> set = shared.get(pid);
         if (set != null)
@@ -7,7 +7,9 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Set;
@@ -271,8 +273,11 @@ public class LogFile {
                 idArgs[i] = new Integer(raf.readInt());
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
+            if (!Database.getCatalog().hasTable(pid.getTableId()))
+                throw new IOException("log has pages of table " + pid.getTableId()
+                        + ", which is not in the catalog");
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            Constructor<?> pageConst = getPageConstructor(pageClass);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -282,7 +287,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -302,6 +307,18 @@ public class LogFile {
 
     }
 
+    /** Find the Page(PageId id, byte[] data) constructor of a page class;
+        page classes may declare other constructors as well. */
+    private Constructor<?> getPageConstructor(Class<?> pageClass) throws IOException {
+        for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+            Class<?>[] params = c.getParameterTypes();
+            if (params.length == 2 && PageId.class.isAssignableFrom(params[0])
+                    && params[1] == byte[].class)
+                return c;
+        }
+        throw new IOException("no (PageId, byte[]) constructor on " + pageClass.getName());
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -395,11 +412,46 @@ public class LogFile {
             }
         }
 
+        rewriteFrom(minLogRecord, cpLoc);
+    }
+
+    /**
+     * Drops every record except those of transactions still running. The
+     * caller must know that the pages of every committed transaction are
+     * on disk; the page writer calls this after writing them.
+     *
+     * @see PageWriter
+     */
+    synchronized void truncateCompleted() throws IOException {
+        // the records may be another run's, still to be recovered
+        if (recoveryUndecided || !raf.getChannel().isOpen())
+            return;
+        long minLogRecord = currentOffset;
+        for (long first : tidToFirstLogRecord.values())
+            minLogRecord = Math.min(minLogRecord, first);
+        if (minLogRecord <= LONG_SIZE)
+            return;
+        raf.seek(0);
+        long cpLoc = raf.readLong();
+        rewriteFrom(minLogRecord, cpLoc >= minLogRecord ? cpLoc : NO_CHECKPOINT_ID);
+    }
+
+    /** @return the length of the log in bytes, or 0 once it is shut down */
+    synchronized long size() throws IOException {
+        return raf.getChannel().isOpen() ? raf.length() : 0;
+    }
+
+    /**
+     * Replaces the log with its records from minLogRecord on.
+     * @param cpLoc the offset of the last checkpoint, which must not be
+     *   before minLogRecord, or NO_CHECKPOINT_ID
+     */
+    private void rewriteFrom(long minLogRecord, long cpLoc) throws IOException {
         // we can truncate everything before minLogRecord
         File newFile = new File("logtmp" + System.currentTimeMillis());
         RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
         logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
+        logNew.writeLong(cpLoc == NO_CHECKPOINT_ID ? NO_CHECKPOINT_ID : (cpLoc - minLogRecord) + LONG_SIZE);
 
         raf.seek(minLogRecord);
 
@@ -430,11 +482,16 @@ public class LogFile {
                         long xid = raf.readLong();
                         long xoffset = raf.readLong();
                         logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
+                        // transactions that have finished since may start
+                        // before the records kept
+                        logNew.writeLong(Math.max(xoffset - minLogRecord, 0) + LONG_SIZE);
                     }
                     break;
                 case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
+                    // only transactions still running; finished ones must
+                    // not hold back the next truncation
+                    if (tidToFirstLogRecord.containsKey(record_tid))
+                        tidToFirstLogRecord.put(record_tid,newStart);
                     break;
                 }
 
@@ -473,18 +530,59 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null)
+                    throw new NoSuchElementException("no log records for transaction " + tid.getId());
+                // pages of the transaction only reach the log, and disk,
+                // when a checkpoint or flushPages writes them early
+                ArrayList<Page> before = new ArrayList<Page>();
+                raf.seek(first);
+                while (raf.getFilePointer() < currentOffset) {
+                    int type = raf.readInt();
+                    long recordTid = raf.readLong();
+                    if (type == UPDATE_RECORD) {
+                        Page b = readPageData(raf);
+                        readPageData(raf);
+                        if (recordTid == tid.getId())
+                            before.add(b);
+                    } else if (type == CHECKPOINT_RECORD) {
+                        skipCheckpoint(raf);
+                    }
+                    raf.readLong();
+                }
+                // newest first, so each page ends at its oldest before image
+                for (int i = before.size() - 1; i >= 0; i--)
+                    installPage(before.get(i), tid);
+                raf.seek(currentOffset);
             }
         }
     }
 
+    private static void skipCheckpoint(RandomAccessFile raf) throws IOException {
+        int numXactions = raf.readInt();
+        raf.seek(raf.getFilePointer() + 2L * LONG_SIZE * numXactions);
+    }
+
+    /**
+     * Writes a page image from the log to its file, and drops any copy of
+     * the page from the buffer pool.
+     */
+    private void installPage(Page p, TransactionId tid) throws IOException {
+        p.markDirty(true, tid);
+        Database.getCatalog().getDbFile(p.getId().getTableId()).writePage(p);
+        Database.getBufferPool().discardPage(p.getId());
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
     public synchronized void shutdown() {
         try {
-            logCheckpoint();  //simple way to shutdown is to write a checkpoint record
+            // nothing was logged, and the log may hold another run's
+            // records that still need recovering
+            if (!recoveryUndecided)
+                logCheckpoint();  //simple way to shutdown is to write a checkpoint record
             raf.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
@@ -495,12 +593,95 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        Commits don't write data pages (see {@link PageWriter}), so the
+        after images of committed transactions are written again, in log
+        order. Then the before images of transactions that neither
+        committed nor aborted are written, newest first. Aborted
+        transactions were rolled back before their ABORT record, so they
+        are left alone. Every page is then where it belongs, so the log is
+        emptied; a file replaced afterwards, as {@link BulkLoader#load}
+        does, can't be overwritten by an earlier run's records.
+        <p>
+        Must be called after the catalog is loaded and before the first
+        transaction starts. If the log holds pages of a table the catalog
+        doesn't have, nothing is recovered and an IOException is thrown.
+        Does nothing once recovery has run or anything has been logged.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
+                if (!recoveryUndecided)
+                    return;
+                ArrayList<Long> tids = new ArrayList<Long>();
+                ArrayList<Page> before = new ArrayList<Page>();
+                ArrayList<Page> after = new ArrayList<Page>();
+                HashSet<Long> completed = new HashSet<Long>();
+                HashSet<Long> committed = new HashSet<Long>();
+                long maxTid = -1;
+                raf.seek(LONG_SIZE);
+                while (true) {
+                    // a record cut short by a crash is ignored
+                    try {
+                        int type = raf.readInt();
+                        long recordTid = raf.readLong();
+                        Page b = null, a = null;
+                        if (type == UPDATE_RECORD) {
+                            b = readPageData(raf);
+                            a = readPageData(raf);
+                        } else if (type == CHECKPOINT_RECORD) {
+                            skipCheckpoint(raf);
+                        }
+                        raf.readLong();
+                        maxTid = Math.max(maxTid, recordTid);
+                        if (type == UPDATE_RECORD) {
+                            tids.add(recordTid);
+                            before.add(b);
+                            after.add(a);
+                        } else if (type == COMMIT_RECORD) {
+                            committed.add(recordTid);
+                            completed.add(recordTid);
+                        } else if (type == ABORT_RECORD) {
+                            completed.add(recordTid);
+                        }
+                    } catch (EOFException e) {
+                        break;
+                    }
+                }
+                // new transactions must not reuse the ids in the log
+                long next = TransactionId.counter.get();
+                while (next <= maxTid && !TransactionId.counter.compareAndSet(next, maxTid + 1))
+                    next = TransactionId.counter.get();
+
+                TransactionId recovery = new TransactionId();
+                for (int i = 0; i < tids.size(); i++) {
+                    if (committed.contains(tids.get(i)))
+                        installPage(after.get(i), recovery);
+                }
+                for (int i = tids.size() - 1; i >= 0; i--) {
+                    if (!completed.contains(tids.get(i)))
+                        installPage(before.get(i), recovery);
+                }
+                HashSet<Integer> tables = new HashSet<Integer>();
+                for (Page p : after)
+                    tables.add(p.getId().getTableId());
+                for (int tableId : tables) {
+                    DbFile f = Database.getCatalog().getDbFile(tableId);
+                    if (f instanceof HeapFile)
+                        ((HeapFile) f).resetPageCount();
+                    else if (f instanceof SlottedFile)
+                        ((SlottedFile) f).resetPageCount();
+                    else if (f instanceof ColumnarFile)
+                        ((ColumnarFile) f).resetPageCount();
+                }
+
+                raf.seek(0);
+                raf.setLength(0);
+                raf.writeLong(NO_CHECKPOINT_ID);
+                currentOffset = raf.getFilePointer();
+                tidToFirstLogRecord.clear();
+                force();
                 recoveryUndecided = false;
-                // some code goes here
             }
          }
     }
@@ -271,6 +271,67 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Work out which columns of a table the plan references, so that the
+     *  scan of a {@link ColumnarFile} only decodes those.  Other tables are
+     *  always scanned in full, since they store whole rows anyway.
+     *  @param table the scan to prune
+     *  @return the needed column indexes in table order, or null to scan
+     *    every column
+     */
+    private int[] neededColumns(LogicalScanNode table) {
+        DbFile file = Database.getCatalog().getDbFile(table.t);
+        if (!(file instanceof ColumnarFile))
+            return null;
+        TupleDesc td = file.getTupleDesc();
+        boolean[] needed = new boolean[td.numFields()];
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        if (hasAgg) {
+            names.add(aggField);
+            names.add(groupByField);
+        }
+        if (hasOrderBy)
+            names.add(oByField);
+
+        for (String name : names) {
+            if (name == null)
+                continue;
+            String[] parts = name.split("[.]");
+            if (parts.length != 2)
+                continue;
+            if (parts[1].equals("*") && (parts[0].equals("null") || parts[0].equals(table.alias)))
+                return null;
+            if (!parts[0].equals(table.alias))
+                continue;
+            try {
+                needed[td.fieldNameToIndex(parts[1])] = true;
+            } catch (NoSuchElementException e) {
+                // reported when the plan is built
+            }
+        }
+
+        int count = 0;
+        for (boolean b : needed)
+            if (b) count++;
+        if (count == needed.length)
+            return null;
+        // a table nothing refers to still has to produce one row per tuple
+        if (count == 0)
+            return new int[] { 0 };
+        int[] columns = new int[count];
+        count = 0;
+        for (int i = 0; i < needed.length; i++)
+            if (needed[i]) columns[count++] = i;
+        return columns;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -294,7 +355,7 @@ public class LogicalPlan {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias);
+                 ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias, neededColumns(table));
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -324,10 +385,18 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            try {
+                if (ftyp == Type.INT_TYPE)
+                    f = new IntField(new Integer(lf.c).intValue());
+                else if (ftyp == Type.LONG_TYPE)
+                    f = new LongField(Long.parseLong(lf.c));
+                else if (ftyp == Type.DOUBLE_TYPE)
+                    f = new DoubleField(Double.parseDouble(lf.c));
+                else
+                    f = new StringField(lf.c, Type.STRING_LEN);
+            } catch (NumberFormatException e) {
+                throw new ParsingException("Bad constant " + lf.c + " for field " + lf.fieldQuantifiedName);
+            }
 
             Predicate p = null;
             try {
@@ -340,7 +409,9 @@ public class LogicalPlan {
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             //double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldPureName), lf.p, f); // LAU EDIT
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // the scan may be pruned, so look the field up in the table itself
+            int statsField = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias)).fieldNameToIndex(lf.fieldPureName);
+            double sel= s.estimateSelectivity(statsField, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -424,7 +495,7 @@ public class LogicalPlan {
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
-                outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
+                outTypes.add(Aggregate.aggregateType(td.getFieldType(id), getAggOp(si.aggOp)));
 
             } else if (hasAgg) {
                     if (groupByField == null) {
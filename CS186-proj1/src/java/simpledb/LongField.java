@@ -0,0 +1,91 @@
+package simpledb;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Instance of Field that stores a single 64-bit integer, such as a
+ * timestamp or a 64-bit id.
+ */
+public class LongField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private long value;
+
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param v The value of this field.
+     */
+    public LongField(long v) {
+        value = v;
+    }
+
+    public String toString() {
+        return Long.toString(value);
+    }
+
+    public int hashCode() {
+        return (int) (value ^ (value >>> 32));
+    }
+
+    public boolean equals(Object field) {
+        return field instanceof LongField && ((LongField) field).value == value;
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeLong(value);
+    }
+
+    public void serialize(ByteBuffer buf, int offset) {
+        buf.putLong(offset, value);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.
+     * Return semantics are as specified by Field.compare
+     *
+     * @throws IllegalCastException if val is not a LongField
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        return compare(op, value, ((LongField) val).value);
+    }
+
+    /**
+     * Compares two long values the way {@link #compare(Predicate.Op, Field)}
+     * compares two LongFields.
+     */
+    public static boolean compare(Predicate.Op op, long value, long other) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return value == other;
+        case NOT_EQUALS:
+            return value != other;
+        case GREATER_THAN:
+            return value > other;
+        case GREATER_THAN_OR_EQ:
+            return value >= other;
+        case LESS_THAN:
+            return value < other;
+        case LESS_THAN_OR_EQ:
+            return value <= other;
+        }
+        return false;
+    }
+
+    /**
+     * Return the Type of this field.
+     * @return Type.LONG_TYPE
+     */
+    public Type getType() {
+        return Type.LONG_TYPE;
+    }
+}
@@ -0,0 +1,41 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * The least-recently-used replacement policy, which evicts the page whose
+ * last access is oldest. Simple and effective for OLTP working sets, but a
+ * scan of more pages than the pool holds evicts every other page.
+ * <p>
+ * All methods synchronize on the policy.
+ */
+public class LruPolicy implements ReplacementPolicy {
+
+    // the loaded frames, from least to most recently used
+    private final LinkedHashMap<Integer, Integer> frames;
+
+    public LruPolicy(int numFrames) {
+        frames = new LinkedHashMap<Integer, Integer>(numFrames * 2, 0.75f, true);
+    }
+
+    public synchronized void pageAccessed(int frame) {
+        frames.get(frame);
+    }
+
+    public synchronized void pageLoaded(int frame, PageId pid) {
+        frames.put(frame, frame);
+    }
+
+    public synchronized int chooseVictim(EvictionTest test) {
+        Iterator<Integer> it = frames.keySet().iterator();
+        while (it.hasNext()) {
+            int frame = it.next();
+            if (test.tryEvict(frame)) {
+                it.remove();
+                return frame;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,176 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * MappedHeapFile is a HeapFile for read-mostly tables that serves page reads
+ * from memory mappings of the backing file rather than from positional
+ * reads. A page read from the file is a read-only slice of the mapping, so
+ * a BufferPool miss on a hot table costs neither a system call nor a copy;
+ * HeapPage copies the bytes the first time the page is modified. Writes
+ * still go through the file channel; the mappings are shared with the page
+ * cache and see them immediately.
+ * <p>
+ * The file is mapped in chunks of {@link #CHUNK_SIZE} bytes (rounded down to
+ * a whole number of pages), so files larger than 2 GB can be mapped. A chunk
+ * that is shorter than its full size because the file has since grown is
+ * remapped the first time a page past its end is read.
+ * <p>
+ * Truncating the file drops the mappings, and waits for any page that is
+ * being sliced out of one. Pages already read from past the new end must
+ * not be used again; {@link Vacuum}, which is what truncates files, drops
+ * the page it removes from the buffer pool.
+ *
+ * @see HeapFile
+ */
+public class MappedHeapFile extends HeapFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Maximum number of bytes covered by a single mapping. */
+    public static final long CHUNK_SIZE = 1L << 30;
+
+    // mappings, indexed by chunk number; entries are null until first use
+    private transient volatile MappedByteBuffer[] chunks;
+    // held for reading while a page is sliced out of a mapping, and for
+    // writing while the file is truncated, so that no mapping is read past
+    // the end of the file
+    private final transient ReentrantReadWriteLock chunkLock = new ReentrantReadWriteLock();
+    // held while chunks is replaced
+    private final transient Object mapLock = new Object();
+
+    /**
+     * Constructs a memory-mapped heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param td
+     *            the schema of the tuples stored in the file.
+     */
+    public MappedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a memory-mapped heap file with its own page size.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, int)
+     */
+    public MappedHeapFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, pageSize);
+    }
+
+    /** @return the number of bytes covered by one full mapping */
+    private long chunkBytes() {
+        return (CHUNK_SIZE / getPageSize()) * getPageSize();
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public Page readPage(PageId pid) throws IOException {
+        int pgNo = pid.pageNumber();
+        if (pgNo < 0 || pgNo >= numPages())
+            throw new IllegalArgumentException("page " + pgNo + " does not exist in " + getFile());
+        ByteBuffer page = slicePage(pgNo);
+        if (page == null) {
+            // the page lies (partly) past the end of the file
+            return super.readPage(pid);
+        }
+        return new HeapPage((HeapPageId) pid, page);
+    }
+
+    @Override
+    protected void readPageData(int pgNo, ByteBuffer buf) throws IOException {
+        ByteBuffer page = slicePage(pgNo);
+        if (page == null)
+            super.readPageData(pgNo, buf);
+        else
+            buf.put(page);
+    }
+
+    /**
+     * @return a read-only view of the specified page in its mapping, or null
+     *         if the page lies (partly) past the end of the file
+     */
+    private ByteBuffer slicePage(int pgNo) throws IOException {
+        long offset = (long) pgNo * getPageSize();
+        long chunkBytes = chunkBytes();
+        int chunkNo = (int) (offset / chunkBytes);
+        int chunkOffset = (int) (offset % chunkBytes);
+
+        // opened first, since opening it takes this file's monitor, which
+        // truncate holds while it waits for the write lock
+        FileChannel ch = getChannel();
+        chunkLock.readLock().lock();
+        try {
+            MappedByteBuffer chunk = getChunk(ch, chunkNo, chunkOffset + getPageSize());
+            if (chunk == null)
+                return null;
+            ByteBuffer view = chunk.duplicate();
+            view.position(chunkOffset);
+            view.limit(chunkOffset + getPageSize());
+            return view.slice();
+        } finally {
+            chunkLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    protected synchronized void truncate(int numPages) throws IOException {
+        // drop the mappings so no page past the new end is read through
+        // them, once the pages being read through them are done
+        chunkLock.writeLock().lock();
+        try {
+            chunks = null;
+            super.truncate(numPages);
+        } finally {
+            chunkLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the mapping for the specified chunk, (re)mapping it if it does
+     * not yet cover the first minLength bytes of the chunk.
+     *
+     * @return the mapping, or null if the file is too short to map
+     *         minLength bytes of the chunk
+     */
+    private MappedByteBuffer getChunk(FileChannel ch, int chunkNo, int minLength) throws IOException {
+        MappedByteBuffer[] current = chunks;
+        if (current != null && chunkNo < current.length && current[chunkNo] != null
+                && current[chunkNo].capacity() >= minLength)
+            return current[chunkNo];
+
+        synchronized (mapLock) {
+            current = chunks;
+            if (current == null)
+                current = new MappedByteBuffer[0];
+            if (chunkNo < current.length && current[chunkNo] != null
+                    && current[chunkNo].capacity() >= minLength)
+                return current[chunkNo];
+
+            long start = chunkNo * chunkBytes();
+            long length = Math.min(chunkBytes(), ch.size() - start);
+            if (length < minLength)
+                return null;
+
+            MappedByteBuffer mapping = ch.map(FileChannel.MapMode.READ_ONLY, start, length);
+            MappedByteBuffer[] next = current;
+            if (chunkNo >= current.length) {
+                next = new MappedByteBuffer[chunkNo + 1];
+                System.arraycopy(current, 0, next, 0, current.length);
+            } else {
+                next = current.clone();
+            }
+            next[chunkNo] = mapping;
+            chunks = next;
+            return mapping;
+        }
+    }
+}
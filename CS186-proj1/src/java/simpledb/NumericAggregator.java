@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Knows how to compute some aggregate over a set of LongFields or
+ * DoubleFields. MIN, MAX, SUM and AVG are of the same type as the
+ * aggregated field (the average of longs is rounded toward zero, as for
+ * ints); COUNT is an int.
+ */
+public class NumericAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    // the group key used when there is no grouping
+    private static final Field NO_GROUP = new IntField(Aggregator.NO_GROUPING);
+
+    private int gbfield;
+    private Type gbfieldtype;
+    private int afield;
+    private Type afieldtype;
+    private Op what;
+
+    // the running aggregate of one group, updated in place
+    private static class Group {
+        int count;
+        long lval, lsum;
+        double dval, dsum;
+    }
+
+    private HashMap<Field, Group> groups = new HashMap<Field, Group>();
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param afieldtype
+     *            the type of the aggregate field, Type.LONG_TYPE or
+     *            Type.DOUBLE_TYPE
+     * @param what
+     *            the aggregation operator
+     * @throws IllegalArgumentException if afieldtype is not LONG_TYPE or
+     *            DOUBLE_TYPE
+     */
+    public NumericAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what) {
+        if (afieldtype != Type.LONG_TYPE && afieldtype != Type.DOUBLE_TYPE)
+            throw new IllegalArgumentException("can't aggregate " + afieldtype + " fields");
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.afield = afield;
+        this.afieldtype = afieldtype;
+        this.what = what;
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        Field key = gbfield == Aggregator.NO_GROUPING ? NO_GROUP : tup.getField(gbfield);
+        Group g = groups.get(key);
+        boolean first = g == null;
+        if (first) {
+            g = new Group();
+            groups.put(key, g);
+        }
+        g.count++;
+        if (afieldtype == Type.LONG_TYPE) {
+            long v = tup.getLong(afield);
+            g.lsum += v;
+            if (first || (what == Op.MIN ? v < g.lval : v > g.lval))
+                g.lval = v;
+        } else {
+            double v = tup.getDouble(afield);
+            g.dsum += v;
+            if (first || (what == Op.MIN ? v < g.dval : v > g.dval))
+                g.dval = v;
+        }
+    }
+
+    /** Returns the value of the aggregate for a group. */
+    private Field aggregateValue(Group g) {
+        if (what == Op.COUNT)
+            return new IntField(g.count);
+        if (afieldtype == Type.LONG_TYPE) {
+            switch (what) {
+                case SUM:
+                    return new LongField(g.lsum);
+                case AVG:
+                    return new LongField(g.lsum / g.count);
+                default:
+                    return new LongField(g.lval);
+            }
+        }
+        switch (what) {
+            case SUM:
+                return new DoubleField(g.dsum);
+            case AVG:
+                return new DoubleField(g.dsum / g.count);
+            default:
+                return new DoubleField(g.dval);
+        }
+    }
+
+    /**
+     * @return the TupleDesc of the tuples returned by {@link #iterator}
+     */
+    private TupleDesc getTupleDesc() {
+        Type aggType = Aggregate.aggregateType(afieldtype, what);
+        if (gbfield == Aggregator.NO_GROUPING)
+            return new TupleDesc(new Type[]{aggType});
+        return new TupleDesc(new Type[]{gbfieldtype, aggType});
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping. The
+     *         aggregateVal is determined by the type of aggregate specified in
+     *         the constructor.
+     */
+    public DbIterator iterator() {
+        TupleDesc td = getTupleDesc();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(groups.size());
+        for (Map.Entry<Field, Group> e : groups.entrySet()) {
+            Tuple tup = new Tuple(td);
+            if (gbfield == Aggregator.NO_GROUPING) {
+                tup.setField(0, aggregateValue(e.getValue()));
+            } else {
+                tup.setField(0, e.getKey());
+                tup.setField(1, aggregateValue(e.getValue()));
+            }
+            tuples.add(tup);
+        }
+        return new TupleIterator(td, tuples);
+    }
+}
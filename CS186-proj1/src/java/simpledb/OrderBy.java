@@ -58,7 +58,7 @@ public class OrderBy extends Operator {
         child.open();
         // load all the tuples in a collection, and sort it
         while (child.hasNext())
-            childTups.add((Tuple) child.next());
+            childTups.add(child.next().retain());
         Collections.sort(childTups, new TupleComparator(orderByField, asc));
         it = childTups.iterator();
         super.open();
@@ -0,0 +1,229 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * PageCompressor converts HeapPage images to and from the compact form that
+ * CompressedHeapFile stores on disk. The slot header is kept as is; each
+ * column is then encoded separately over all of the page's slots:
+ * <ul>
+ * <li>INT_TYPE values are stored either frame-of-reference (the minimum
+ *     value, then every value minus the minimum bit-packed in as few bits
+ *     as the range needs) or, when the column has long runs of equal
+ *     values as sorted columns do, run-length encoded.
+ * <li>STRING_TYPE values are replaced by their index in a per-page
+ *     dictionary of the distinct strings, and the indexes are then encoded
+ *     like an int column.
+ * <li>LONG_TYPE and DOUBLE_TYPE values are split into their high and low
+ *     32 bits, which are encoded as two int columns; the high words of a
+ *     column of small or similar values pack into very few bits.
+ * </ul>
+ * Strings are stored without their padding, so the padded 128-byte strings
+ * of a typical table shrink to a few bits each.
+ */
+public class PageCompressor {
+
+    private static final int FRAME_OF_REFERENCE = 1;
+    private static final int RUN_LENGTH = 2;
+
+    private final TupleDesc td;
+    private final int pageSize;
+    private final int numSlots;
+    private final int headerSize;
+    // offset of each field within a tuple
+    private final int[] fieldOffsets;
+    private final int tupleSize;
+
+    public PageCompressor(TupleDesc td, int pageSize) {
+        this.td = td;
+        this.pageSize = pageSize;
+        this.numSlots = HeapPage.slotsPerPage(td, pageSize);
+        this.headerSize = HeapPage.headerBytes(numSlots);
+        this.fieldOffsets = new int[td.numFields()];
+        int off = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            fieldOffsets[j] = off;
+            off += td.getFieldType(j).getLen();
+        }
+        this.tupleSize = off;
+    }
+
+    /**
+     * @param page a HeapPage image of pageSize bytes
+     * @return the compressed form of the page
+     */
+    public byte[] compress(byte[] page) {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(page);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(pageSize / 4);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(page, 0, headerSize);
+            int[] values = new int[numSlots];
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.STRING_TYPE) {
+                    HashMap<StringField, Integer> codes = new HashMap<StringField, Integer>();
+                    ByteArrayOutputStream dict = new ByteArrayOutputStream();
+                    DataOutputStream dictOut = new DataOutputStream(dict);
+                    for (int i = 0; i < numSlots; i++) {
+                        StringField s = (StringField) Type.STRING_TYPE.parse(buf, slotOffset(i, j));
+                        Integer code = codes.get(s);
+                        if (code == null) {
+                            code = codes.size();
+                            codes.put(s, code);
+                            dictOut.writeShort(s.rawLength());
+                            dictOut.write(s.rawBytes(), s.rawOffset(), s.rawLength());
+                        }
+                        values[i] = code;
+                    }
+                    out.writeInt(codes.size());
+                    dict.writeTo(out);
+                } else if (td.getFieldType(j).getLen() == 8) {
+                    for (int i = 0; i < numSlots; i++)
+                        values[i] = buf.getInt(slotOffset(i, j));
+                    writeInts(out, values);
+                    for (int i = 0; i < numSlots; i++)
+                        values[i] = buf.getInt(slotOffset(i, j) + 4);
+                } else {
+                    for (int i = 0; i < numSlots; i++)
+                        values[i] = buf.getInt(slotOffset(i, j));
+                }
+                writeInts(out, values);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // ByteArrayOutputStream doesn't throw
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param data bytes produced by {@link #compress}
+     * @return the HeapPage image the bytes were compressed from
+     */
+    public byte[] decompress(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        byte[] page = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        in.readFully(page, 0, headerSize);
+        int[] values = new int[numSlots];
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                int dictSize = in.readInt();
+                StringField[] dict = new StringField[dictSize];
+                for (int k = 0; k < dictSize; k++) {
+                    byte[] s = new byte[in.readUnsignedShort()];
+                    in.readFully(s);
+                    dict[k] = StringField.wrap(s, Type.STRING_LEN);
+                }
+                readInts(in, values);
+                for (int i = 0; i < numSlots; i++) {
+                    if (values[i] < 0 || values[i] >= dictSize)
+                        throw new IOException("corrupt compressed page");
+                    dict[values[i]].serialize(buf, slotOffset(i, j));
+                }
+            } else if (td.getFieldType(j).getLen() == 8) {
+                readInts(in, values);
+                for (int i = 0; i < numSlots; i++)
+                    buf.putInt(slotOffset(i, j), values[i]);
+                readInts(in, values);
+                for (int i = 0; i < numSlots; i++)
+                    buf.putInt(slotOffset(i, j) + 4, values[i]);
+            } else {
+                readInts(in, values);
+                for (int i = 0; i < numSlots; i++)
+                    buf.putInt(slotOffset(i, j), values[i]);
+            }
+        }
+        return page;
+    }
+
+    private int slotOffset(int slot, int field) {
+        return headerSize + slot * tupleSize + fieldOffsets[field];
+    }
+
+    /**
+     * Writes values with whichever of run-length and frame-of-reference
+     * encoding is smaller.
+     */
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        int runs = 1;
+        long min = values.length > 0 ? values[0] : 0, max = min;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] != values[i - 1])
+                runs++;
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        int bits = 64 - Long.numberOfLeadingZeros(max - min);
+        long rleSize = 4 + 8L * runs;
+        long forSize = 5 + ((long) bits * values.length + 7) / 8;
+
+        if (rleSize < forSize) {
+            out.writeByte(RUN_LENGTH);
+            out.writeInt(runs);
+            int start = 0;
+            for (int i = 1; i <= values.length; i++) {
+                if (i == values.length || values[i] != values[start]) {
+                    out.writeInt(values[start]);
+                    out.writeInt(i - start);
+                    start = i;
+                }
+            }
+        } else {
+            out.writeByte(FRAME_OF_REFERENCE);
+            out.writeInt((int) min);
+            out.writeByte(bits);
+            long acc = 0;
+            int accBits = 0;
+            for (int i = 0; i < values.length; i++) {
+                acc |= (values[i] - min) << accBits;
+                accBits += bits;
+                while (accBits >= 8) {
+                    out.writeByte((int) acc);
+                    acc >>>= 8;
+                    accBits -= 8;
+                }
+            }
+            if (accBits > 0)
+                out.writeByte((int) acc);
+        }
+    }
+
+    private static void readInts(DataInputStream in, int[] values) throws IOException {
+        int encoding = in.readUnsignedByte();
+        if (encoding == RUN_LENGTH) {
+            int runs = in.readInt();
+            int i = 0;
+            for (int r = 0; r < runs; r++) {
+                int value = in.readInt();
+                int length = in.readInt();
+                if (length < 0 || i + length > values.length)
+                    throw new IOException("corrupt compressed page");
+                for (int k = 0; k < length; k++)
+                    values[i++] = value;
+            }
+            if (i != values.length)
+                throw new IOException("corrupt compressed page");
+        } else if (encoding == FRAME_OF_REFERENCE) {
+            long min = in.readInt();
+            int bits = in.readUnsignedByte();
+            long mask = bits == 64 ? -1L : (1L << bits) - 1;
+            long acc = 0;
+            int accBits = 0;
+            for (int i = 0; i < values.length; i++) {
+                while (accBits < bits) {
+                    acc |= (long) in.readUnsignedByte() << accBits;
+                    accBits += 8;
+                }
+                values[i] = (int) (min + (acc & mask));
+                acc >>>= bits;
+                accBits -= bits;
+            }
+        } else {
+            throw new IOException("unknown column encoding " + encoding);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A PageTrace records the pages a BufferPool is asked for, in order, so
+ * that the accesses of a workload can be replayed against each
+ * replacement policy to compare their hit ratios without running the
+ * workload again. Traces are written as text, one
+ * <tt>tableId pageNumber</tt> access per line.
+ *
+ * @see BufferPool#setTrace
+ */
+public class PageTrace {
+
+    private int[] tables = new int[1024];
+    private int[] pageNumbers = new int[1024];
+    private int size;
+
+    /** Appends an access to pid to the trace. */
+    public synchronized void record(PageId pid) {
+        if (size == tables.length) {
+            tables = Arrays.copyOf(tables, size * 2);
+            pageNumbers = Arrays.copyOf(pageNumbers, size * 2);
+        }
+        tables[size] = pid.getTableId();
+        pageNumbers[size] = pid.pageNumber();
+        size++;
+    }
+
+    /** @return the number of accesses recorded */
+    public synchronized int size() {
+        return size;
+    }
+
+    /** Writes the trace to f, replacing it. */
+    public synchronized void write(File f) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(f)));
+        try {
+            for (int i = 0; i < size; i++)
+                out.println(tables[i] + " " + pageNumbers[i]);
+        } finally {
+            out.close();
+        }
+        if (out.checkError())
+            throw new IOException("error writing " + f);
+    }
+
+    /** Reads a trace written by {@link #write}. */
+    public static PageTrace read(File f) throws IOException {
+        PageTrace trace = new PageTrace();
+        BufferedReader in = new BufferedReader(new FileReader(f));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0)
+                    continue;
+                String[] parts = line.split("\\s+");
+                if (parts.length != 2)
+                    throw new IOException("bad trace line: " + line);
+                try {
+                    trace.record(new HeapPageId(Integer.parseInt(parts[0]), Integer.parseInt(parts[1])));
+                } catch (NumberFormatException e) {
+                    throw new IOException("bad trace line: " + line);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return trace;
+    }
+
+    /**
+     * Replays the trace against a pool of the specified size that uses the
+     * named policy. Every page can be evicted, as if the workload only
+     * read.
+     *
+     * @param policy a name accepted by {@link BufferPool#newPolicy}
+     * @return the fraction of the accesses that found their page cached
+     */
+    public synchronized double replay(String policy, int frames) {
+        ReplacementPolicy p = BufferPool.newPolicy(policy, frames);
+        final HashMap<PageId, Integer> cached = new HashMap<PageId, Integer>();
+        final PageId[] inFrame = new PageId[frames];
+        ReplacementPolicy.EvictionTest evict = new ReplacementPolicy.EvictionTest() {
+            public boolean tryEvict(int frame) {
+                cached.remove(inFrame[frame]);
+                return true;
+            }
+        };
+        int used = 0;
+        long hits = 0;
+        for (int i = 0; i < size; i++) {
+            PageId pid = new HeapPageId(tables[i], pageNumbers[i]);
+            Integer frame = cached.get(pid);
+            if (frame != null) {
+                p.pageAccessed(frame);
+                hits++;
+                continue;
+            }
+            int f = used < frames ? used++ : p.chooseVictim(evict);
+            if (f < 0)
+                continue;
+            inFrame[f] = pid;
+            cached.put(pid, f);
+            p.pageLoaded(f, pid);
+        }
+        return size == 0 ? 0 : (double) hits / size;
+    }
+}
@@ -0,0 +1,292 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * PageWriter holds the images of pages that committed transactions
+ * changed and writes them to disk from a background thread, so that
+ * commits don't wait on data-page writes.
+ * <p>
+ * At commit, {@link BufferPool#transactionComplete} logs each page the
+ * transaction dirtied, forces the log, and hands a copy of the page to
+ * {@link #stage}; the page in the pool is clean from then on and can be
+ * evicted like any other. Because the log already holds the page, writing
+ * it later never breaks write-ahead logging, and if the database stops
+ * first, {@link LogFile#recover} writes the page from the log. Until the
+ * image is written, {@link #get} returns it to BufferPool in place of
+ * what is on disk.
+ * <p>
+ * The thread sleeps until the staged pages reach the
+ * {@link BufferPool#setDirtyRatio dirty ratio} of the pool, or until
+ * {@link #WRITE_DELAY_MILLIS} pass with any staged at all, and then writes
+ * them sorted by table and page number, in batches of at most
+ * {@link #BATCH_PAGES}. A commit only writes pages itself if the staged
+ * pages outgrow the pool.
+ * <p>
+ * Once a round has written every staged page, the log records of the
+ * committed transactions are no longer needed, so whenever the log has
+ * grown by {@link #TRUNCATE_LOG_BYTES} the thread takes the commit latch,
+ * writes what was staged in the meantime and has
+ * {@link LogFile#truncateCompleted} drop those records.
+ */
+class PageWriter implements Runnable {
+
+    /** Most pages written under the write lock at a time. */
+    static final int BATCH_PAGES = 64;
+
+    /** How long a staged page waits before the thread writes it anyway. */
+    static final long WRITE_DELAY_MILLIS = 200;
+
+    /** How much the log may grow before the thread truncates it. */
+    static final long TRUNCATE_LOG_BYTES = 16 << 20;
+
+    /** Orders pages by table, then by page number. */
+    static final Comparator<Page> FILE_ORDER = new Comparator<Page>() {
+        public int compare(Page a, Page b) {
+            int ta = a.getId().getTableId(), tb = b.getId().getTableId();
+            if (ta != tb)
+                return ta < tb ? -1 : 1;
+            int pa = a.getId().pageNumber(), pb = b.getId().pageNumber();
+            return pa < pb ? -1 : (pa == pb ? 0 : 1);
+        }
+    };
+
+    // the latest committed image of every page not yet written
+    private final ConcurrentHashMap<PageId, Page> staged = new ConcurrentHashMap<PageId, Page>();
+    // held while pages are written, so that the thread, a committer and
+    // a checkpoint don't write the same image at once
+    private final Object writeLock = new Object();
+    private final int poolPages;
+    private volatile double dirtyRatio;
+    private final AtomicLong backgroundWrites = new AtomicLong();
+    private final AtomicLong commitWrites = new AtomicLong();
+    // held by commits until their pages are staged; see BufferPool
+    private final Lock commitLatch;
+    // the size of the log after the thread last truncated it
+    private volatile long truncatedLogSize = 0;
+
+    private Thread thread;
+    private Thread shutdownHook;
+    private boolean closed = false;
+
+    /**
+     * @param commitLatch held by every commit from its first log record
+     *   until its pages are staged; the thread takes it to truncate the log
+     */
+    PageWriter(int poolPages, double dirtyRatio, Lock commitLatch) {
+        this.poolPages = poolPages;
+        this.dirtyRatio = dirtyRatio;
+        this.commitLatch = commitLatch;
+    }
+
+    void setDirtyRatio(double ratio) {
+        dirtyRatio = ratio;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Takes over the committed image of a page, replacing any older image
+     * of it. The image must be marked dirty, as files only write dirty
+     * pages, and the log records for it must already be on disk.
+     */
+    void stage(Page image) throws IOException {
+        staged.put(image.getId(), image);
+        int n = staged.size();
+        boolean writeNow = n > poolPages; // the thread is falling behind
+        synchronized (this) {
+            if (closed)
+                writeNow = true;
+            else if (thread == null)
+                start();
+            if (n >= dirtyRatio * poolPages)
+                notifyAll();
+        }
+        if (writeNow)
+            commitWrites.addAndGet(writeStaged());
+    }
+
+    /**
+     * @return a copy of the committed image of pid that hasn't been
+     *   written yet, or null if the page on disk is current
+     */
+    Page get(PageId pid) {
+        Page image = staged.get(pid);
+        return image == null ? null : image.getBeforeImage();
+    }
+
+    /** @return the number of committed pages not yet written */
+    int stagedPages() {
+        return staged.size();
+    }
+
+    /** @return the number of pages the background thread has written */
+    long backgroundWrites() {
+        return backgroundWrites.get();
+    }
+
+    /** @return the number of pages commits had to write themselves */
+    long commitWrites() {
+        return commitWrites.get();
+    }
+
+    /**
+     * Writes every staged page, in page order.
+     * @return the number of pages written
+     */
+    int writeStaged() throws IOException {
+        ArrayList<Page> pages = new ArrayList<Page>(staged.values());
+        Collections.sort(pages, FILE_ORDER);
+        int written = 0;
+        for (int i = 0; i < pages.size(); i += BATCH_PAGES)
+            written += writeBatch(pages.subList(i, Math.min(i + BATCH_PAGES, pages.size())));
+        return written;
+    }
+
+    /**
+     * Writes the staged image of pid, if there is one, without waiting for
+     * the thread.
+     */
+    void write(PageId pid) throws IOException {
+        Page image = staged.get(pid);
+        if (image != null)
+            commitWrites.addAndGet(writeBatch(Collections.singletonList(image)));
+    }
+
+    /** Writes the pages of a sorted batch that are still staged. */
+    private int writeBatch(List<Page> batch) throws IOException {
+        synchronized (writeLock) {
+            ArrayList<Page> current = new ArrayList<Page>(batch.size());
+            for (Page p : batch) {
+                if (staged.get(p.getId()) == p)
+                    current.add(p);
+            }
+            int i = 0;
+            while (i < current.size()) {
+                int tableId = current.get(i).getId().getTableId();
+                int j = i + 1;
+                while (j < current.size() && current.get(j).getId().getTableId() == tableId)
+                    j++;
+                Database.getCatalog().getDbFile(tableId).writePages(current.subList(i, j));
+                i = j;
+            }
+            // only now may getPage read these pages from disk
+            for (Page p : current)
+                staged.remove(p.getId(), p);
+            return current.size();
+        }
+    }
+
+    private void start() {
+        thread = new Thread(this, "simpledb-page-writer");
+        thread.setDaemon(true);
+        thread.start();
+        // staged pages are committed, so they must reach disk before exit;
+        // the log is then left holding only unfinished transactions, so
+        // the next run has nothing to recover from a clean exit
+        shutdownHook = new Thread("simpledb-page-writer-exit") {
+            public void run() {
+                try {
+                    truncateLog(true);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + WRITE_DELAY_MILLIS;
+                while (!closed && staged.size() < dirtyRatio * poolPages) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        if (!staged.isEmpty())
+                            break;
+                        deadline = System.currentTimeMillis() + WRITE_DELAY_MILLIS;
+                        wait = WRITE_DELAY_MILLIS;
+                    }
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed)
+                    return;
+            }
+            try {
+                backgroundWrites.addAndGet(writeStaged());
+                truncateLog(false);
+            } catch (IOException e) {
+                // the pages stay staged; the next round or a checkpoint
+                // tries again
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes every staged page and drops the log records of committed
+     * transactions, unless always is false and the log hasn't grown by
+     * {@link #TRUNCATE_LOG_BYTES} since the last time.
+     */
+    private void truncateLog(boolean always) throws IOException {
+        LogFile log = Database.getLogFile();
+        long size = log.size();
+        if (size < truncatedLogSize) // a checkpoint truncated it since
+            truncatedLogSize = size;
+        if (!always && size - truncatedLogSize < TRUNCATE_LOG_BYTES)
+            return;
+        // with the latch, no commit is between its log records and
+        // staging its pages, so once the staged pages are written every
+        // committed transaction's pages are on disk
+        commitLatch.lock();
+        try {
+            backgroundWrites.addAndGet(writeStaged());
+            log.truncateCompleted();
+        } finally {
+            commitLatch.unlock();
+        }
+        truncatedLogSize = log.size();
+    }
+
+    /**
+     * Writes every staged page and stops the thread. Pages staged
+     * afterwards are written by the committing thread.
+     */
+    void close() throws IOException {
+        Thread t;
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+            t = thread;
+            if (shutdownHook != null) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                } catch (IllegalStateException e) {
+                    // already exiting, and the hook is running
+                }
+                shutdownHook = null;
+            }
+        }
+        if (t != null) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        writeStaged();
+    }
+}
@@ -357,25 +357,37 @@ public class Parser {
                             "Complex expressions not allowed in INSERT statements.");
                 ZConstant zc = (ZConstant) e;
                 if (zc.getType() == ZConstant.NUMBER) {
-                    if (td.getFieldType(i) != Type.INT_TYPE) {
+                    if (td.getFieldType(i) == Type.STRING_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
-                                + " is not an integer, expected a string.");
+                                + " is a number, expected a string.");
+                    }
+                    Field f;
+                    try {
+                        if (td.getFieldType(i) == Type.LONG_TYPE)
+                            f = new LongField(Long.parseLong(zc.getValue()));
+                        else if (td.getFieldType(i) == Type.DOUBLE_TYPE)
+                            f = new DoubleField(Double.parseDouble(zc.getValue()));
+                        else
+                            f = new IntField(new Integer(zc.getValue()));
+                    } catch (NumberFormatException nfe) {
+                        throw new simpledb.ParsingException("Value "
+                                + zc.getValue() + " is not a valid "
+                                + td.getFieldType(i) + ".");
                     }
-                    IntField f = new IntField(new Integer(zc.getValue()));
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
                     if (td.getFieldType(i) != Type.STRING_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
-                                + " is a string, expected an integer.");
+                                + " is a string, expected a number.");
                     }
                     StringField f = new StringField(zc.getValue(),
                             Type.STRING_LEN);
                     t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
-                            "Only string or int fields are supported.");
+                            "Only string or numeric fields are supported.");
                 }
 
                 i++;
@@ -581,7 +593,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "vacuum" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -601,11 +613,42 @@ public class Parser {
         System.out.println("Bye");
     }
 
+    /**
+     * Compacts the named table with {@link Vacuum}, in transactions of its
+     * own, and prints what was reclaimed.
+     */
+    protected void handleVacuum(String tableName) throws IOException {
+        int tableId;
+        try {
+            tableId = Database.getCatalog().getTableId(tableName);
+        } catch (NoSuchElementException e) {
+            System.out.println("Unknown table " + tableName);
+            return;
+        }
+        DbFile f = Database.getCatalog().getDbFile(tableId);
+        if (!(f instanceof HeapFile)) {
+            System.out.println("VACUUM only supports heap files");
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        Vacuum vacuum = new Vacuum((HeapFile) f);
+        try {
+            vacuum.run();
+        } catch (DbException e) {
+            System.out.println("VACUUM failed: " + e.getMessage());
+        }
+        System.out.println(vacuum);
+        System.out.printf("----------------\n%.2f seconds\n\n",
+                ((double) (System.currentTimeMillis() - startTime) / 1000.0));
+    }
+
     protected boolean interactive = true;
 
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
+        // commits only force the log; install what a crash left in it
+        Database.getLogFile().recover();
         TableStats.computeStatistics();
 
         String queryFile = null;
@@ -674,6 +717,12 @@ public class Parser {
                         quit = true;
                         break;
                     }
+                    if (cmd.toUpperCase().startsWith("VACUUM ")) {
+                        handleVacuum(cmd.substring(7, cmd.length() - 1).trim());
+                        line = line.substring(split + 1);
+                        buffer = new StringBuilder();
+                        continue;
+                    }
 
                     long startTime = System.currentTimeMillis();
                     processNextStatement(new ByteArrayInputStream(
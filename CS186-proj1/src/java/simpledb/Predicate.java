@@ -113,6 +113,12 @@ public class Predicate implements Serializable {
         //System.out.println(t.getField(field));
         //System.out.println(op.toString());
         //System.out.println(operand.toString());
+        if (operand instanceof IntField)
+            return IntField.compare(op, t.getInt(field), ((IntField) operand).getValue());
+        if (operand instanceof LongField)
+            return LongField.compare(op, t.getLong(field), ((LongField) operand).getValue());
+        if (operand instanceof DoubleField)
+            return DoubleField.compare(op, t.getDouble(field), ((DoubleField) operand).getValue());
         return t.getField(field).compare(op,operand);
 
     }
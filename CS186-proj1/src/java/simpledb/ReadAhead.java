@@ -0,0 +1,67 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+/**
+ * ReadAhead watches the pages a single file iterator visits and, once it
+ * has moved through {@link #SEQUENTIAL_THRESHOLD} consecutive pages, asks
+ * the BufferPool to read the next few pages of the file in the background
+ * (see {@link BufferPool#prefetchPages}). The number of pages read ahead is
+ * the pool's {@link BufferPool#getReadAheadDepth read-ahead depth}.
+ */
+class ReadAhead {
+
+    /** Consecutive pages an iterator must visit before reading ahead. */
+    static final int SEQUENTIAL_THRESHOLD = 2;
+
+    private final DbFile file;
+    private int lastPage = -2;
+    private int run = 0;
+    // highest page number already handed to the pool
+    private int requestedUpTo = -1;
+    // the iterator's bulk-read ring, if it has one
+    private BufferPool.BulkReadRing ring;
+
+    ReadAhead(DbFile file) {
+        this.file = file;
+    }
+
+    /** Read ahead into the frames of the specified ring, or null for none. */
+    void setRing(BufferPool.BulkReadRing ring) {
+        this.ring = ring;
+    }
+
+    /** Forget the access pattern, as when the iterator is rewound. */
+    void reset() {
+        lastPage = -2;
+        run = 0;
+        requestedUpTo = -1;
+    }
+
+    /**
+     * Called by the iterator each time it moves to a page, before it reads
+     * the page.
+     */
+    void pageVisited(int pgNo) {
+        run = pgNo == lastPage + 1 ? run + 1 : 1;
+        lastPage = pgNo;
+        if (run == 1)
+            requestedUpTo = pgNo;
+        BufferPool pool = Database.getBufferPool();
+        int depth = pool.getReadAheadDepth();
+        // top up once half of what was requested has been consumed, rather
+        // than one page at a time
+        if (run < SEQUENTIAL_THRESHOLD || depth == 0 || requestedUpTo - pgNo > depth / 2)
+            return;
+
+        int last = Math.min(pgNo + depth, file.numPages() - 1);
+        int first = Math.max(pgNo + 1, requestedUpTo + 1);
+        if (first > last)
+            return;
+        ArrayList<PageId> pids = new ArrayList<PageId>();
+        for (int i = first; i <= last; i++)
+            pids.add(new HeapPageId(file.getId(), i));
+        pool.prefetchPages(pids, ring);
+        requestedUpTo = last;
+    }
+}
@@ -0,0 +1,42 @@
+package simpledb;
+
+/**
+ * A ReplacementPolicy decides which page a BufferPool evicts when it needs
+ * a frame for a page that isn't cached. The pool numbers its frames from 0
+ * and tells the policy whenever a page is loaded into a frame or found in
+ * one; the policy keeps whatever history it needs to rank the frames.
+ * <p>
+ * Implementations must be safe to call from many threads at once.
+ *
+ * @see BufferPool#newPolicy
+ * @see PageTrace#replay
+ */
+public interface ReplacementPolicy {
+
+    /** Decides whether the page in a frame can be evicted. */
+    interface EvictionTest {
+        /**
+         * Tries to evict the page in the specified frame.
+         * @return true if the page is gone and the frame is the caller's
+         */
+        boolean tryEvict(int frame);
+    }
+
+    /** Called each time a cached page is found in frame. */
+    void pageAccessed(int frame);
+
+    /**
+     * Called when the page pid has been loaded into frame, which was
+     * either never used or returned by {@link #chooseVictim}.
+     */
+    void pageLoaded(int frame, PageId pid);
+
+    /**
+     * Offers frames to test, best victim first, until it evicts one. The
+     * policy forgets the frame that was evicted from until it is loaded
+     * again.
+     *
+     * @return the frame evicted from, or -1 if test refused every frame
+     */
+    int chooseVictim(EvictionTest test);
+}
@@ -15,7 +15,11 @@ public class SeqScan implements DbIterator {
     TransactionId _tid;
     int _tableid; //table id
     String _tableAlias;
-    private DbFileIterator tableIterator;
+    // columns of the table to return, or null for all of them
+    int[] _columns;
+    // set when the file can't project, so next() has to
+    private TupleDesc _rowProjection;
+    private DbFileIterator<Tuple> tableIterator;
 
 
     /**
@@ -35,10 +39,35 @@ public class SeqScan implements DbIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan that returns only some of the columns of the
+     * specified table. Tables stored in a {@link ColumnarFile} only decode
+     * those columns; for other tables the scan projects each tuple itself.
+     *
+     * @param columns
+     *            indexes of the table's columns to return, in output order,
+     *            or null for all of them
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
         _tid = tid;
         _tableid = tableid;
         _tableAlias = tableAlias;
-        tableIterator = Database.getCatalog().getDbFile(_tableid).iterator(_tid);
+        _columns = columns;
+        tableIterator = createIterator();
+    }
+
+    private DbFileIterator<Tuple> createIterator() {
+        DbFile file = Database.getCatalog().getDbFile(_tableid);
+        _rowProjection = null;
+        if (_columns != null && file instanceof ColumnarFile)
+            return ((ColumnarFile) file).iterator(_tid, _columns);
+        if (_columns != null)
+            _rowProjection = ColumnarFile.projectTupleDesc(file.getTupleDesc(), _columns);
+        return file.iterator(_tid);
     }
 
     /**
@@ -73,6 +102,16 @@ public class SeqScan implements DbIterator {
     public void reset(int tableid, String tableAlias) {
         _tableid = tableid;
         _tableAlias = tableAlias;
+        _columns = null;
+        tableIterator = createIterator();
+    }
+
+    /**
+     * @return the indexes of the table's columns this scan returns, or null
+     *   if it returns all of them
+     */
+    public int[] getColumns() {
+        return _columns;
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -98,6 +137,8 @@ public class SeqScan implements DbIterator {
     public TupleDesc getTupleDesc() {
         //String[] aliases = TupleDesc.getAliasArray(this);
         TupleDesc td = Database.getCatalog().getDbFile(_tableid).getTupleDesc();
+        if (_columns != null)
+            td = ColumnarFile.projectTupleDesc(td, _columns);
         String alias = getAlias();
         String[] aliases = new String[td.numFields()];
         for (int i = 0; i < aliases.length; i++) {
@@ -114,7 +155,14 @@ public class SeqScan implements DbIterator {
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        return tableIterator.next();
+        Tuple t = tableIterator.next();
+        if (_rowProjection == null)
+            return t;
+        Tuple projected = new Tuple(_rowProjection);
+        for (int i = 0; i < _columns.length; i++)
+            projected.setField(i, t.getField(_columns[i]));
+        projected.setRecordId(t.getRecordId());
+        return projected;
     }
 
     public void close() {
@@ -9,7 +9,7 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
-            if (args.length<3 || args.length>5){
+            if (args.length<3 || args.length>6){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
             }
@@ -18,6 +18,7 @@ public class SimpleDb {
             int numOfAttributes=Integer.parseInt(args[2]);
             Type[] ts = new Type[numOfAttributes];
             char fieldSeparator=',';
+            int pageSize = BufferPool.getPageSize();
 
             if (args.length == 3) 
                 for (int i=0;i<numOfAttributes;i++)
@@ -32,21 +33,20 @@ public class SimpleDb {
                 }
                 int index=0;
                 for (String s: typeStringAr) {
-                        if (s.toLowerCase().equals("int"))
-                            ts[index++]=Type.INT_TYPE;
-                        else if (s.toLowerCase().equals("string"))
-                                ts[index++]=Type.STRING_TYPE;
-                            else {
-                                System.err.println("Unknown type " + s);
-                                return;
-                            }
+                        ts[index++]=Type.forName(s);
+                        if (ts[index-1] == null) {
+                            System.err.println("Unknown type " + s);
+                            return;
+                        }
                 }
-                if (args.length==5)
+                if (args.length>=5)
                     fieldSeparator=args[4].charAt(0);
+                if (args.length==6)
+                    pageSize=Integer.parseInt(args[5]);
             }
 
             HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.PAGE_SIZE,numOfAttributes,ts,fieldSeparator);
+                        pageSize,numOfAttributes,ts,fieldSeparator);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -55,8 +55,11 @@ public class SimpleDb {
             File tableFile = new File(args[1]);
             int columns = Integer.parseInt(args[2]);
             DbFile table = Utility.openHeapFile(columns, tableFile);
+            // finish what a run that stopped before writing its committed
+            // pages left in the log
+            Database.getLogFile().recover();
             TransactionId tid = new TransactionId();
-            DbFileIterator it = table.iterator(tid);
+            DbFileIterator<Tuple> it = table.iterator(tid);
             
             if(null == it){
                System.out.println("Error: method HeapFile.iterator(TransactionId tid) not yet implemented!");
@@ -69,6 +72,156 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("compress")) {
+            // compress a table file and compare it with the original
+            if (args.length < 3 || args.length > 4) {
+                System.err.println("Usage: compress file.dat numColumns [type,type,...]");
+                return;
+            }
+            File tableFile = new File(args[1]);
+            Type[] ts = parseTypes(Integer.parseInt(args[2]), args.length == 4 ? args[3] : null);
+            if (ts == null)
+                return;
+            TupleDesc td = new TupleDesc(ts);
+            HeapFile heap = new HeapFile(tableFile, td);
+            Database.getCatalog().addTable(heap, "heap");
+            Database.getLogFile().recover();
+            CompressedHeapFile compressed = CompressedHeapFile.compress(heap,
+                    new File(args[1].replaceAll(".dat$", "") + ".cdat"));
+            Database.getCatalog().addTable(compressed, "compressed");
+
+            System.out.println(heap.numPages() + " pages, " + tableFile.length() + " bytes -> "
+                    + compressed.compressedSize() + " bytes compressed ("
+                    + String.format("%.1f", (double) tableFile.length() / Math.max(1, compressed.compressedSize()))
+                    + "x)");
+            System.out.println("heap scan: " + timeScan(heap) + " ms");
+            System.out.println("compressed scan: " + timeScan(compressed) + " ms");
+        }
+        else if (args[0].equals("vacuum")) {
+            // compact a table file and compare scans before and after
+            if (args.length < 3 || args.length > 4) {
+                System.err.println("Usage: vacuum file.dat numColumns [type,type,...]");
+                return;
+            }
+            Type[] ts = parseTypes(Integer.parseInt(args[2]), args.length == 4 ? args[3] : null);
+            if (ts == null)
+                return;
+            HeapFile heap = new HeapFile(new File(args[1]), new TupleDesc(ts));
+            Database.getCatalog().addTable(heap, "heap");
+            Database.getLogFile().recover();
+            long before = timeScan(heap);
+            Vacuum vacuum = new Vacuum(heap);
+            vacuum.run();
+            Database.getBufferPool().flushAllPages();
+            System.out.println(vacuum);
+            System.out.println("scan: " + before + " ms -> " + timeScan(heap) + " ms");
+        }
+        else if (args[0].equals("poolbench")) {
+            // measure getPage throughput from 1 to 64 threads
+            if (args.length < 3 || args.length > 4) {
+                System.err.println("Usage: poolbench file.dat numColumns [type,type,...]");
+                return;
+            }
+            Type[] ts = parseTypes(Integer.parseInt(args[2]), args.length == 4 ? args[3] : null);
+            if (ts == null)
+                return;
+            HeapFile heap = new HeapFile(new File(args[1]), new TupleDesc(ts));
+            Database.getCatalog().addTable(heap, "heap");
+            Database.getLogFile().recover();
+            for (int threads = 1; threads <= 64; threads *= 2) {
+                System.out.println(threads + " threads: "
+                        + benchGetPage(heap, threads, 1000000) + " getPage calls/s");
+            }
+        }
+        else if (args[0].equals("missbench")) {
+            // measure the page reads behind buffer pool misses from 1 to 16 threads
+            if (args.length < 3 || args.length > 4) {
+                System.err.println("Usage: missbench file.dat numColumns [type,type,...]");
+                return;
+            }
+            Type[] ts = parseTypes(Integer.parseInt(args[2]), args.length == 4 ? args[3] : null);
+            if (ts == null)
+                return;
+            HeapFile heap = new HeapFile(new File(args[1]), new TupleDesc(ts));
+            Database.getCatalog().addTable(heap, "heap");
+            Database.getLogFile().recover();
+            for (int threads = 1; threads <= 16; threads *= 4) {
+                long perSecond = benchReadPage(heap, threads, 100000);
+                System.out.println(threads + " threads: " + perSecond + " page reads/s ("
+                        + perSecond * heap.getPageSize() / (1 << 20) + " MB/s)");
+            }
+        }
+        else if (args[0].equals("pagebench")) {
+            // convert a text file at several page sizes and compare scans
+            if (args.length < 3 || args.length > 4) {
+                System.err.println("Usage: pagebench file.txt numColumns [type,type,...]");
+                return;
+            }
+            Type[] ts = parseTypes(Integer.parseInt(args[2]), args.length == 4 ? args[3] : null);
+            if (ts == null)
+                return;
+            Database.getLogFile().recover();
+            for (int kb : new int[]{4, 16, 64}) {
+                File tableFile = new File(args[1].replaceAll(".txt$", "") + "-" + kb + "k.dat");
+                HeapFileEncoder.convert(new File(args[1]), tableFile, kb << 10, ts.length, ts);
+                HeapFile heap = new HeapFile(tableFile, new TupleDesc(ts), kb << 10);
+                Database.getCatalog().addTable(heap, "heap" + kb);
+                timeScan(heap); // warms up the JIT, which favours later sizes otherwise
+                long elapsed = timeScan(heap);
+                System.out.println(kb + " KB pages: " + heap.numPages() + " pages, scan "
+                        + elapsed + " ms ("
+                        + tableFile.length() * 1000 / Math.max(1, elapsed) / (1 << 20) + " MB/s)");
+            }
+        }
+        else if (args[0].equals("directbench")) {
+            // compare buffered and direct (O_DIRECT) I/O on a table
+            if (args.length < 3 || args.length > 4) {
+                System.err.println("Usage: directbench file.dat numColumns [type,type,...]");
+                return;
+            }
+            Type[] ts = parseTypes(Integer.parseInt(args[2]), args.length == 4 ? args[3] : null);
+            if (ts == null)
+                return;
+            File tableFile = new File(args[1]);
+            HeapFile buffered = new HeapFile(tableFile, new TupleDesc(ts));
+            Database.getCatalog().addTable(buffered, "heap");
+            Database.getLogFile().recover();
+            System.out.println("table " + buffered.numPages() + " pages, pool "
+                    + BufferPool.DEFAULT_PAGES + " pages");
+            for (boolean direct : new boolean[]{false, true}) {
+                HeapFile heap = new HeapFile(tableFile, new TupleDesc(ts));
+                heap.setDirectIO(direct);
+                try {
+                    heap.isDirectIO();
+                } catch (IOException e) {
+                    System.out.println("direct: " + e.getMessage());
+                    continue;
+                }
+                Database.getCatalog().addTable(heap, "heap");
+                // the pool is smaller than most tables, so the second scan
+                // shows what the operating system's cache adds to it
+                long first = timeScan(heap);
+                long second = timeScan(heap);
+                long reads = benchReadPage(heap, 1, 10000);
+                System.out.println((direct ? "direct" : "buffered") + ": scan " + first
+                        + " ms, rescan " + second + " ms, point read "
+                        + 1000000 / Math.max(1, reads) + " us");
+            }
+        }
+        else if (args[0].equals("replay")) {
+            // compare the replacement policies' hit ratios on a recorded trace
+            if (args.length != 3) {
+                System.err.println("Usage: replay trace.txt poolPages");
+                return;
+            }
+            PageTrace trace = PageTrace.read(new File(args[1]));
+            int frames = Integer.parseInt(args[2]);
+            System.out.println(trace.size() + " accesses, " + frames + " frames");
+            for (String policy : BufferPool.REPLACEMENT_POLICIES) {
+                System.out.println(policy + ": hit ratio "
+                        + String.format("%.4f", trace.replay(policy, frames)));
+            }
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
@@ -98,4 +251,134 @@ public class SimpleDb {
         }
     }
 
+    /**
+     * Parses a comma-separated list of column types, all int if types is
+     * null.
+     * @return the types, or null after printing an error
+     */
+    private static Type[] parseTypes(int columns, String types) {
+        Type[] ts = new Type[columns];
+        String[] typeStringAr = types != null ? types.split(",") : null;
+        if (typeStringAr != null && typeStringAr.length != columns) {
+            System.err.println("The number of types does not agree with the number of columns");
+            return null;
+        }
+        for (int i = 0; i < columns; i++) {
+            ts[i] = typeStringAr == null ? Type.INT_TYPE : Type.forName(typeStringAr[i]);
+            if (ts[i] == null) {
+                System.err.println("Unknown type " + typeStringAr[i]);
+                return null;
+            }
+        }
+        return ts;
+    }
+
+    /**
+     * Has the specified number of threads fetch random pages of table,
+     * read-only, from a buffer pool big enough to hold the whole table and
+     * one that holds a quarter of it. Each thread runs as its own
+     * transaction, as concurrent readers would.
+     * @return the number of getPage calls per second, averaged over both
+     *   pools
+     */
+    private static long benchGetPage(final DbFile table, int threads, final int calls)
+            throws IOException {
+        final int pages = table.numPages();
+        long total = 0;
+        for (int poolPages : new int[]{pages, Math.max(1, pages / 4)}) {
+            Database.resetBufferPool(poolPages);
+            final BufferPool pool = Database.getBufferPool();
+            Thread[] workers = new Thread[threads];
+            final int perThread = calls / threads;
+            long start = System.nanoTime();
+            for (int i = 0; i < threads; i++) {
+                final long seed = i;
+                workers[i] = new Thread() {
+                    public void run() {
+                        java.util.Random random = new java.util.Random(seed);
+                        TransactionId tid = new TransactionId();
+                        try {
+                            for (int j = 0; j < perThread; j++) {
+                                PageId pid = new HeapPageId(table.getId(), random.nextInt(pages));
+                                pool.getPage(tid, pid, Permissions.READ_ONLY);
+                            }
+                            pool.transactionComplete(tid, true);
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                };
+                workers[i].start();
+            }
+            for (Thread w : workers) {
+                try {
+                    w.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            total += (long) perThread * threads * 1000000000L / Math.max(1, elapsed);
+        }
+        return total / 2;
+    }
+
+    /**
+     * Has the specified number of threads read random pages of table
+     * straight from its file, as the buffer pool does on a miss.
+     * @return the number of pages read per second
+     */
+    private static long benchReadPage(final DbFile table, int threads, final int reads)
+            throws IOException {
+        final int pages = table.numPages();
+        Thread[] workers = new Thread[threads];
+        final int perThread = reads / threads;
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    java.util.Random random = new java.util.Random(seed);
+                    try {
+                        for (int j = 0; j < perThread; j++)
+                            table.readPage(new HeapPageId(table.getId(), random.nextInt(pages)));
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread w : workers) {
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        return (long) perThread * threads * 1000000000L / Math.max(1, elapsed);
+    }
+
+    /**
+     * Scans every tuple of table from a cold buffer pool.
+     * @return the time the scan took, in milliseconds
+     */
+    private static long timeScan(DbFile table)
+            throws DbException, TransactionAbortedException, IOException {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        long start = System.currentTimeMillis();
+        DbFileIterator<Tuple> it = table.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+        long elapsed = System.currentTimeMillis() - start;
+        Database.getBufferPool().transactionComplete(tid, true);
+        return elapsed;
+    }
+
 }
@@ -0,0 +1,355 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * SlottedFile is a DbFile that stores its tuples on SlottedPages, so string
+ * fields take only the space of their actual contents. Like HeapFile, it is
+ * an unordered collection of fixed-size pages, and page ids are
+ * HeapPageIds.
+ *
+ * @see SlottedPage
+ */
+public class SlottedFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private File file;
+    private TupleDesc tupleDesc;
+    private int pageSize;
+    // bytes a page needs free to be sure to fit any tuple of this table
+    private int maxTupleSpace;
+
+    private transient volatile FileChannel channel;
+    // pages in the file, counting pages allocated but not yet written;
+    // worked out from the file's length on first use
+    private transient volatile int pageCount = -1;
+
+    // pages with room for a maximum-size tuple; built on first use
+    private transient volatile FreeSpaceMap freeSpace;
+
+    public SlottedFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a slotted file with its own page size.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     * @param td the schema of the tuples stored in the file.
+     * @param pageSize bytes per page, including header.
+     * @throws IllegalArgumentException if a page of this size can't hold a
+     *            single tuple, or is too big for the slot directory
+     */
+    public SlottedFile(File f, TupleDesc td, int pageSize) {
+        this.maxTupleSpace = SlottedPage.maxTupleSpace(td);
+        if (pageSize > SlottedPage.MAX_PAGE_SIZE)
+            throw new IllegalArgumentException("page size " + pageSize + " is larger than "
+                    + SlottedPage.MAX_PAGE_SIZE);
+        if (pageSize - SlottedPage.HEADER_SIZE < maxTupleSpace)
+            throw new IllegalArgumentException("page size " + pageSize + " is too small for " + td);
+        this.file = f;
+        this.tupleDesc = td;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Returns the File backing this SlottedFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return Math.abs(file.getAbsoluteFile().hashCode()) % 10000000;
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    private FileChannel getChannel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null) {
+            synchronized (this) {
+                if (channel == null)
+                    channel = new RandomAccessFile(file, "rw").getChannel();
+                ch = channel;
+            }
+        }
+        return ch;
+    }
+
+    private void read(ByteBuffer buf, long offset) throws IOException {
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, offset + buf.position()) < 0)
+                break;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) throws IOException {
+        int pgNo = pid.pageNumber();
+        if (pgNo < 0 || pgNo >= numPages())
+            throw new IllegalArgumentException("page " + pgNo + " does not exist in " + file);
+        byte[] data = new byte[pageSize];
+        read(ByteBuffer.wrap(data), (long) pgNo * pageSize);
+        return new SlottedPage((HeapPageId) pid, data);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        if (page.isDirty() != null) {
+            ByteBuffer buf = ByteBuffer.wrap(page.getPageData());
+            FileChannel ch = getChannel();
+            long offset = (long) page.getId().pageNumber() * pageSize;
+            while (buf.hasRemaining())
+                ch.write(buf, offset + buf.position());
+        }
+        page.markDirty(false, null);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        HeapFile.writeRuns(getChannel(), pageSize, pages);
+    }
+
+    // see DbFile.java for javadocs
+    public int numPages() {
+        int n = pageCount;
+        if (n < 0) {
+            synchronized (this) {
+                if (pageCount < 0)
+                    pageCount = (int) (file.length() / pageSize);
+                n = pageCount;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Adds a page to the end of the file. Nothing is written; the page
+     * reads as empty until it is, and pages written past the end of the
+     * file leave empty pages before them.
+     *
+     * @return the number of the new page
+     */
+    private synchronized int allocatePage() {
+        int pgNo = numPages();
+        pageCount = pgNo + 1;
+        return pgNo;
+    }
+
+    /**
+     * Forgets the page count and free-space map, so that both are worked
+     * out from the file again after recovery has written to it.
+     */
+    synchronized void resetPageCount() {
+        pageCount = -1;
+        freeSpace = null;
+    }
+
+    private FreeSpaceMap getFreeSpaceMap() throws IOException {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm == null) {
+            // the map is read from the headers on disk, so write the
+            // committed pages the buffer pool hasn't written yet first;
+            // outside the lock, as writing them may need it
+            Database.getBufferPool().flushCommittedPages();
+            synchronized (this) {
+                if (freeSpace == null) {
+                    fsm = new FreeSpaceMap();
+                    ByteBuffer header = ByteBuffer.allocate(SlottedPage.HEADER_SIZE);
+                    int pages = numPages();
+                    for (int i = 0; i < pages; i++) {
+                        header.clear();
+                        read(header, (long) i * pageSize);
+                        int numSlots = header.getInt(0);
+                        int freeEnd = header.getInt(4) == 0 ? pageSize : header.getInt(4);
+                        fsm.setFree(i, hasRoom(freeEnd - SlottedPage.HEADER_SIZE
+                                - numSlots * SlottedPage.SLOT_SIZE));
+                    }
+                    freeSpace = fsm;
+                }
+                fsm = freeSpace;
+            }
+        }
+        return fsm;
+    }
+
+    private boolean hasRoom(int freeBytes) {
+        return freeBytes >= maxTupleSpace;
+    }
+
+    /**
+     * Records how much room the specified page has, after an insert or
+     * delete on it or after an abort restored it.
+     */
+    void pageSpaceChanged(int pgNo, int freeBytes) {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null)
+            fsm.setFree(pgNo, hasRoom(freeBytes));
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> result = new ArrayList<Page>();
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        int size = SlottedPage.encodedSize(t) + SlottedPage.SLOT_SIZE;
+        int pages = numPages();
+        for (int i = fsm.nextFree(0); i >= 0 && i < pages; i = fsm.nextFree(i + 1)) {
+            SlottedPage p = (SlottedPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(getId(), i), Permissions.READ_WRITE);
+            if (p.getFreeSpace() >= size) {
+                p.insertTuple(t);
+                p.markDirty(true, tid);
+                fsm.setFree(i, hasRoom(p.getFreeSpace()));
+                result.add(p);
+                return result;
+            }
+            // stale hint
+            fsm.setFree(i, hasRoom(p.getFreeSpace()));
+        }
+
+        SlottedPage newPage = new SlottedPage(new HeapPageId(getId(), allocatePage()),
+                SlottedPage.createEmptyPageData(pageSize));
+        newPage.insertTuple(t);
+        // cached as a page of tid, like the new pages of insertTuples
+        Database.getBufferPool().addNewPage(tid, newPage);
+        fsm.setFree(newPage.getId().pageNumber(), hasRoom(newPage.getFreeSpace()));
+        result.add(newPage);
+        return result;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterable<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> result = new ArrayList<Page>();
+        Iterator<Tuple> it = tuples.iterator();
+        Tuple t = it.hasNext() ? it.next() : null;
+        if (t == null)
+            return result;
+
+        // fill the pages that have room first, locking each one once
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        int pages = numPages();
+        for (int i = fsm.nextFree(0); t != null && i >= 0 && i < pages; i = fsm.nextFree(i + 1)) {
+            SlottedPage p = (SlottedPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(getId(), i), Permissions.READ_WRITE);
+            boolean modified = false;
+            while (t != null && p.getFreeSpace() >= SlottedPage.encodedSize(t) + SlottedPage.SLOT_SIZE) {
+                p.insertTuple(t);
+                modified = true;
+                t = it.hasNext() ? it.next() : null;
+            }
+            if (modified) {
+                p.markDirty(true, tid);
+                result.add(p);
+            }
+            fsm.setFree(i, hasRoom(p.getFreeSpace()));
+        }
+
+        // then put the rest on new pages, cached as pages of tid
+        while (t != null) {
+            SlottedPage p = new SlottedPage(new HeapPageId(getId(), allocatePage()),
+                    SlottedPage.createEmptyPageData(pageSize));
+            while (t != null && p.getFreeSpace() >= SlottedPage.encodedSize(t) + SlottedPage.SLOT_SIZE) {
+                p.insertTuple(t);
+                t = it.hasNext() ? it.next() : null;
+            }
+            Database.getBufferPool().addNewPage(tid, p);
+            fsm.setFree(p.getId().pageNumber(), hasRoom(p.getFreeSpace()));
+            result.add(p);
+        }
+        return result;
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        if (t.getRecordId() == null || t.getRecordId().getPageId().getTableId() != getId())
+            throw new DbException("No such tuple");
+        try {
+            SlottedPage p = (SlottedPage) Database.getBufferPool().getPage(tid,
+                    t.getRecordId().getPageId(), Permissions.READ_WRITE);
+            p.deleteTuple(t);
+            p.markDirty(true, tid);
+            pageSpaceChanged(p.getId().pageNumber(), p.getFreeSpace());
+            return p;
+        } catch (IOException e) {
+            throw new DbException("No such tuple");
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator<Tuple> iterator(final TransactionId tid) {
+        return new DbFileIterator<Tuple>() {
+
+            private int pageNo;
+            // pages as of open(); pages added since are not scanned
+            private int pages;
+            private Iterator<Tuple> current;
+            private boolean isOpen = false;
+            private ReadAhead readAhead = new ReadAhead(SlottedFile.this);
+
+            public void open() throws DbException, TransactionAbortedException {
+                isOpen = true;
+                pageNo = -1;
+                pages = numPages();
+                current = null;
+                readAhead.reset();
+            }
+
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                if (!isOpen)
+                    return false;
+                while (current == null || !current.hasNext()) {
+                    if (pageNo + 1 >= pages)
+                        return false;
+                    pageNo++;
+                    readAhead.pageVisited(pageNo);
+                    try {
+                        SlottedPage p = (SlottedPage) Database.getBufferPool().getPage(tid,
+                                new HeapPageId(getId(), pageNo), Permissions.READ_ONLY);
+                        current = p.iterator();
+                    } catch (IOException e) {
+                        throw new DbException("could not read page " + pageNo + ": " + e.getMessage());
+                    }
+                }
+                return true;
+            }
+
+            public Tuple next() throws DbException, TransactionAbortedException {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return current.next();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                if (!isOpen)
+                    throw new DbException("Iterator closed");
+                open();
+            }
+
+            public void close() {
+                isOpen = false;
+                current = null;
+            }
+        };
+    }
+}
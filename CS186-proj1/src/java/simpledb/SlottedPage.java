@@ -0,0 +1,373 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * SlottedPage stores the tuples of a SlottedFile with variable-length
+ * strings, so a short string takes only as many bytes as it has characters
+ * rather than the fixed {@link Type#STRING_LEN} + 4 a HeapPage uses.
+ * <p>
+ * The layout of a page of <tt>pageSize</tt> bytes is:
+ * <pre>
+ *     int   number of slot directory entries (numSlots)
+ *     int   offset of the lowest tuple byte (freeEnd)
+ *     numSlots x (unsigned short offset, unsigned short length)
+ *     free space
+ *     tuple data, growing down from the end of the page
+ * </pre>
+ * A directory entry with length 0 is an empty slot. Within a tuple, fields
+ * are stored in order; strings as an unsigned short length followed by the
+ * string bytes, all other types in their fixed-width form.
+ * <p>
+ * Deleting a tuple slides the tuples below it up so that free space always
+ * stays contiguous; slot numbers, and therefore RecordIds, of the remaining
+ * tuples do not change.
+ *
+ * @see SlottedFile
+ */
+public class SlottedPage implements Page {
+
+    /** Bytes of fixed header before the slot directory. */
+    static final int HEADER_SIZE = 8;
+    /** Bytes per slot directory entry. */
+    static final int SLOT_SIZE = 4;
+    /** Largest page size whose offsets fit in a directory entry. */
+    static final int MAX_PAGE_SIZE = 1 << 16;
+
+    HeapPageId pid;
+    TupleDesc td;
+    int pageSize;
+
+    // the page exactly as it is laid out on disk
+    byte[] data;
+    // decoded tuples, filled in as slots are read
+    Tuple[] tuples;
+    // true while data is also the before image; copied before it is next
+    // modified
+    private boolean dataShared;
+
+    byte[] oldData;
+
+    TransactionId dirtyTransactionID;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, in the
+     * format described above. An all-zero array is an empty page.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        this.data = data.length == pageSize ? data : Arrays.copyOf(data, pageSize);
+        if (getFreeEnd() == 0)
+            setFreeEnd(pageSize);
+        if (getFreeEnd() > pageSize || HEADER_SIZE + getNumSlots() * SLOT_SIZE > getFreeEnd())
+            throw new IOException("corrupt slotted page " + id.pageNumber());
+        this.tuples = new Tuple[getNumSlots()];
+        setBeforeImage();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage of the specified size.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        byte[] data = new byte[pageSize];
+        putInt(data, 4, pageSize);
+        return data;
+    }
+
+    /**
+     * @return the largest number of bytes a tuple of td can take on a page,
+     *   including its slot directory entry
+     */
+    static int maxTupleSpace(TupleDesc td) {
+        int size = SLOT_SIZE;
+        for (int i = 0; i < td.numFields(); i++)
+            size += td.getFieldType(i) == Type.STRING_TYPE ? Type.STRING_LEN + 2
+                    : td.getFieldType(i).getLen();
+        return size;
+    }
+
+    /** @return the number of bytes t will take in the tuple data area */
+    static int encodedSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE)
+                size += 2 + Math.min(((StringField) t.getField(i)).rawLength(), Type.STRING_LEN);
+            else
+                size += td.getFieldType(i).getLen();
+        }
+        return size;
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** Return a view of this page before it was modified
+     -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            return new SlottedPage(pid, oldData);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        // share the current bytes; the next modification copies them
+        oldData = data;
+        dataShared = true;
+    }
+
+    private void beforeModify() {
+        if (dataShared) {
+            data = data.clone();
+            dataShared = false;
+        }
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyTransactionID = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtyTransactionID;
+    }
+
+    /** @return the number of entries in the slot directory */
+    public int getNumSlots() {
+        return getInt(data, 0);
+    }
+
+    private void setNumSlots(int n) {
+        putInt(data, 0, n);
+    }
+
+    private int getFreeEnd() {
+        return getInt(data, 4);
+    }
+
+    private void setFreeEnd(int off) {
+        putInt(data, 4, off);
+    }
+
+    private int slotOffset(int slot) {
+        return getShort(data, HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int slotLength(int slot) {
+        return getShort(data, HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        putShort(data, HEADER_SIZE + slot * SLOT_SIZE, offset);
+        putShort(data, HEADER_SIZE + slot * SLOT_SIZE + 2, length);
+    }
+
+    /**
+     * @return the number of contiguous free bytes between the slot
+     *   directory and the tuple data
+     */
+    public int getFreeSpace() {
+        return getFreeEnd() - HEADER_SIZE - getNumSlots() * SLOT_SIZE;
+    }
+
+    /** Returns true if associated slot on this page is filled. */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < getNumSlots() && slotLength(i) > 0;
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple is updated to reflect
+     * that it is now stored on this page.
+     * @throws DbException if the page doesn't have room for the tuple or
+     *         tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (t.getTupleDesc().numFields() != td.numFields())
+            throw new DbException("tupledesc is mismatch");
+        for (int j = 0; j < td.numFields(); j++) {
+            if (t.getField(j) == null || t.getField(j).getType() != td.getFieldType(j))
+                throw new DbException("tupledesc is mismatch");
+        }
+
+        int numSlots = getNumSlots();
+        int slot = 0;
+        while (slot < numSlots && slotLength(slot) > 0)
+            slot++;
+        int size = encodedSize(t);
+        int needed = size + (slot == numSlots ? SLOT_SIZE : 0);
+        if (needed > getFreeSpace())
+            throw new DbException("Page full");
+
+        beforeModify();
+        int off = getFreeEnd() - size;
+        encode(t, off);
+        setFreeEnd(off);
+        if (slot == numSlots) {
+            setNumSlots(numSlots + 1);
+            tuples = Arrays.copyOf(tuples, numSlots + 1);
+        }
+        setSlot(slot, off, size);
+        t.setRecordId(new RecordId(pid, slot));
+        tuples[slot] = t;
+    }
+
+    /**
+     * Delete the specified tuple from the page and compact the tuple data;
+     * the tuple is updated to reflect that it is no longer stored on any
+     * page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())
+                || rid.getPageId().getTableId() != pid.getTableId()
+                || !isSlotUsed(rid.tupleno()))
+            throw new DbException("No such tuple");
+
+        beforeModify();
+        int slot = rid.tupleno();
+        int off = slotOffset(slot);
+        int len = slotLength(slot);
+        int freeEnd = getFreeEnd();
+
+        // slide everything stored below the deleted tuple up by len bytes
+        System.arraycopy(data, freeEnd, data, freeEnd + len, off - freeEnd);
+        Arrays.fill(data, freeEnd, freeEnd + len, (byte) 0);
+        int numSlots = getNumSlots();
+        for (int i = 0; i < numSlots; i++) {
+            if (slotLength(i) > 0 && slotOffset(i) < off)
+                setSlot(i, slotOffset(i) + len, slotLength(i));
+        }
+        setFreeEnd(freeEnd + len);
+        setSlot(slot, 0, 0);
+        tuples[slot] = null;
+
+        // trailing empty directory entries can be given back
+        while (numSlots > 0 && slotLength(numSlots - 1) == 0) {
+            numSlots--;
+            setSlot(numSlots, 0, 0);
+        }
+        if (numSlots != getNumSlots()) {
+            setNumSlots(numSlots);
+            tuples = Arrays.copyOf(tuples, numSlots);
+        }
+
+        t.setRecordId(null);
+    }
+
+    /** Writes the fields of t to the tuple data area starting at off. */
+    private void encode(Tuple t, int off) {
+        for (int j = 0; j < td.numFields(); j++) {
+            Field f = t.getField(j);
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                StringField s = (StringField) f;
+                int len = Math.min(s.rawLength(), Type.STRING_LEN);
+                putShort(data, off, len);
+                off += 2;
+                System.arraycopy(s.rawBytes(), s.rawOffset(), data, off, len);
+                off += len;
+            } else {
+                f.serialize(java.nio.ByteBuffer.wrap(data), off);
+                off += td.getFieldType(j).getLen();
+            }
+        }
+    }
+
+    /** Returns the tuple in the specified slot, decoding it if needed. */
+    public Tuple getTuple(int slot) throws NoSuchElementException {
+        if (!isSlotUsed(slot))
+            throw new NoSuchElementException("slot " + slot + " is empty");
+        Tuple t = tuples[slot];
+        if (t == null) {
+            t = new Tuple(td);
+            int off = slotOffset(slot);
+            java.nio.ByteBuffer buf = java.nio.ByteBuffer.wrap(data);
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.STRING_TYPE) {
+                    int len = getShort(data, off);
+                    // copied, since deletes slide the tuple data of this
+                    // page in place
+                    t.setField(j, StringField.wrap(Arrays.copyOfRange(data, off + 2, off + 2 + len),
+                            Type.STRING_LEN));
+                    off += 2 + len;
+                } else {
+                    t.setField(j, td.getFieldType(j).parse(buf, off));
+                    off += td.getFieldType(j).getLen();
+                }
+            }
+            t.setRecordId(new RecordId(pid, slot));
+            tuples[slot] = t;
+        }
+        return t;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *   this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+
+            private int slot = nextUsedSlot(0);
+
+            private int nextUsedSlot(int i) {
+                while (i < getNumSlots() && !isSlotUsed(i))
+                    i++;
+                return i;
+            }
+
+            public boolean hasNext() {
+                return slot < getNumSlots();
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = getTuple(slot);
+                slot = nextUsedSlot(slot + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    static int getInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16)
+                | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    static int getShort(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 8) | (b[off + 1] & 0xFF);
+    }
+
+    static void putShort(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 8);
+        b[off + 1] = (byte) v;
+    }
+}
@@ -16,8 +16,11 @@ public class StringAggregator implements Aggregator {
     private Op what;
     private boolean isOpen;
     private TupleDesc td;
-    // create hashmaps to store aggregate values
-    private HashMap<Field,Field> strFieldCount;
+    // the group key used when there is no grouping
+    private static final Field NO_GROUP = new IntField(Aggregator.NO_GROUPING);
+
+    // the count of each group, updated in place
+    private HashMap<Field,int[]> strFieldCount;
 
     /**
      * Aggregate constructor
@@ -32,7 +35,7 @@ public class StringAggregator implements Aggregator {
         this.gbfield = gbfield;
         this.afield = afield;
         this.what = what;
-        this.strFieldCount = new HashMap<Field,Field>();
+        this.strFieldCount = new HashMap<Field,int[]>();
         this.isOpen = false;
 
     }
@@ -65,30 +68,22 @@ public class StringAggregator implements Aggregator {
 
         // grouping logic
         if(gbfield == Aggregator.NO_GROUPING){
-            tupleGroup = new IntField(Aggregator.NO_GROUPING);
+            tupleGroup = NO_GROUP;
         }
         else {
             tupleGroup = tup.getField(gbfield);
         }
 
-        IntField tga = (IntField)tupleGroup;
-        int tg = tga.getValue();
-        IntField tv = (IntField) strFieldCount.get(tga);
-
         if(what != Op.COUNT){
             throw new IllegalArgumentException();
         }
+        int[] count = strFieldCount.get(tupleGroup);
+        if(count == null){
+            strFieldCount.put(tupleGroup, new int[]{1});
+        }
         else{
-                // if the value doesn't exist in the hashmap, put it in the hashmap
-            if(strFieldCount.get(tupleGroup) == null){
-                strFieldCount.put(tupleGroup,new IntField(1));
-                }
-                // else we add 1 to the existing tuple sum
-            else{
-                strFieldCount.put(tupleGroup,new IntField(tv.getValue() + 1));
-                }
+            count[0]++;
         }
-
     }
 
     /**
@@ -101,21 +96,21 @@ public class StringAggregator implements Aggregator {
      */
     public DbIterator iterator() {
         // some code goes here
-        Iterator iterator = strFieldCount.entrySet().iterator();
+        Iterator<Map.Entry<Field,int[]>> iterator = strFieldCount.entrySet().iterator();
         Tuple[] tupleIt = new Tuple[strFieldCount.size()];
         int i = 0;
 
         while(iterator.hasNext()){
 
-            Map.Entry pair = (Map.Entry)iterator.next();
-            System.out.println(pair.getKey() + " = " + pair.getValue());
+            Map.Entry<Field,int[]> pair = iterator.next();
+            Field value = new IntField(pair.getValue()[0]);
             Tuple tup = new Tuple(td);
             if(Aggregator.NO_GROUPING == gbfield){
-                tup.setField(0, (Field) pair.getValue());
+                tup.setField(0, value);
             }
             else{
-                tup.setField(0, (Field) pair.getKey());
-                tup.setField(1, (Field) pair.getValue());
+                tup.setField(0, pair.getKey());
+                tup.setField(1, value);
             }
             tupleIt[i] = (tup);
             i++;
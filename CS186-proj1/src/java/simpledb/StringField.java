@@ -2,75 +2,171 @@ package simpledb;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
+ * <p>
+ * The string is kept as its UTF-8 bytes, which is also how it is stored on
+ * pages, and comparisons, LIKE and hashing work on the bytes directly. A
+ * java.lang.String is only made when {@link #getValue} or
+ * {@link #toString} asks for one.
  */
 public class StringField implements Field {
 
 	private static final long serialVersionUID = 1L;
 
-	private String value;
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// the UTF-8 bytes of the string are bytes[off .. off + len); len is at
+	// most maxSize
+	private byte[] bytes;
+	private int off;
+	private int len;
 	private int maxSize;
 
+	// the decoded string and hash code, computed on first use
+	private transient String value;
+	private transient int hash;
+
 	public String getValue() {
-		return value;
+		String s = value;
+		if (s == null) {
+			s = new String(bytes, off, len, UTF8);
+			value = s;
+		}
+		return s;
 	}
 
 	/**
 	 * Constructor.
-	 * 
+	 *
 	 * @param s
 	 *            The value of this field.
 	 * @param maxSize
-	 *            The maximum size of this string
+	 *            The maximum size of this string, in UTF-8 bytes; longer
+	 *            strings are truncated to the last whole character that
+	 *            fits
 	 */
 	public StringField(String s, int maxSize) {
 		this.maxSize = maxSize;
-
-		if (s.length() > maxSize)
-			value = s.substring(0, maxSize);
-		else
+		bytes = s.getBytes(UTF8);
+		len = truncatedLength(bytes, 0, bytes.length, maxSize);
+		if (len == bytes.length)
 			value = s;
 	}
 
+	/**
+	 * Creates a field over len UTF-8 bytes of b, starting at off, truncated
+	 * to maxSize bytes. The bytes are not copied, so the caller must not
+	 * change them while the field is in use.
+	 *
+	 * @param maxSize
+	 *            The maximum size of this string, in bytes
+	 */
+	public StringField(byte[] b, int off, int len, int maxSize) {
+		this.bytes = b;
+		this.off = off;
+		this.len = truncatedLength(b, off, len, maxSize);
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Returns a field over the specified bytes, which the caller gives up;
+	 * they must be no more than maxSize long.
+	 */
+	static StringField wrap(byte[] bytes, int maxSize) {
+		return new StringField(bytes, 0, bytes.length, maxSize);
+	}
+
+	/**
+	 * Returns how many of the len UTF-8 bytes at off fit in maxSize bytes
+	 * without splitting a character.
+	 */
+	static int truncatedLength(byte[] b, int off, int len, int maxSize) {
+		if (len <= maxSize)
+			return len;
+		len = maxSize;
+		// back up over continuation bytes (10xxxxxx) to a character start
+		while (len > 0 && (b[off + len] & 0xC0) == 0x80)
+			len--;
+		return len;
+	}
+
+	/**
+	 * Returns the array holding the UTF-8 bytes of this string, which are
+	 * the {@link #rawLength} bytes starting at {@link #rawOffset}. The
+	 * array may be shared and must not be modified.
+	 */
+	byte[] rawBytes() {
+		return bytes;
+	}
+
+	/** @return the index of the first byte of this string in rawBytes() */
+	int rawOffset() {
+		return off;
+	}
+
+	/** @return the length of this string in UTF-8 bytes */
+	int rawLength() {
+		return len;
+	}
+
 	public String toString() {
-		return value;
+		return getValue();
 	}
 
 	public int hashCode() {
-		return value.hashCode();
+		int h = hash;
+		if (h == 0) {
+			for (int i = off; i < off + len; i++)
+				h = 31 * h + bytes[i];
+			hash = h;
+		}
+		return h;
 	}
 
 	public boolean equals(Object field) {
-		return ((StringField) field).value.equals(value);
+		if (!(field instanceof StringField))
+			return false;
+		StringField f = (StringField) field;
+		return f.len == len && compareBytes(bytes, off, len, f.bytes, f.off, f.len) == 0;
 	}
 
 	/**
 	 * Write this string to dos. Always writes maxSize + 4 bytes to the passed
 	 * in dos. First four bytes are string length, next bytes are string, with
 	 * remainder padded with 0 to maxSize.
-	 * 
+	 *
 	 * @param dos
 	 *            Where the string is written
 	 */
 	public void serialize(DataOutputStream dos) throws IOException {
-		String s = value;
-		int overflow = maxSize - s.length();
-		if (overflow < 0) {
-			String news = s.substring(0, maxSize);
-			s = news;
-		}
-		dos.writeInt(s.length());
-		dos.writeBytes(s);
-		while (overflow-- > 0)
+		dos.writeInt(len);
+		dos.write(bytes, off, len);
+		for (int i = len; i < maxSize; i++)
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write this string into buf at offset, in the same maxSize + 4 byte
+	 * format as {@link #serialize(DataOutputStream)}.
+	 */
+	public void serialize(ByteBuffer buf, int offset) {
+		buf.putInt(offset, len);
+		ByteBuffer view = buf.duplicate();
+		view.position(offset + 4);
+		view.put(bytes, off, len);
+		for (int i = len; i < maxSize; i++)
+			view.put((byte) 0);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
-	 * are as specified by Field.compare
-	 * 
+	 * are as specified by Field.compare. Strings are ordered by their UTF-8
+	 * bytes, which orders them by code point.
+	 *
 	 * @throws IllegalCastException
 	 *             if val is not a StringField
 	 * @see Field#compare
@@ -78,7 +174,10 @@ public class StringField implements Field {
 	public boolean compare(Predicate.Op op, Field val) {
 
 		StringField iVal = (StringField) val;
-		int cmpVal = value.compareTo(iVal.value);
+		if (op == Predicate.Op.LIKE)
+			return indexOf(bytes, off, len, iVal.bytes, iVal.off, iVal.len) >= 0;
+
+		int cmpVal = compareBytes(bytes, off, len, iVal.bytes, iVal.off, iVal.len);
 
 		switch (op) {
 		case EQUALS:
@@ -98,14 +197,45 @@ public class StringField implements Field {
 
 		case LESS_THAN_OR_EQ:
 			return cmpVal <= 0;
-
-		case LIKE:
-			return value.indexOf(iVal.value) >= 0;
 		}
 
 		return false;
 	}
 
+	/**
+	 * Compares aLen bytes of a at aOff with bLen bytes of b at bOff as
+	 * unsigned bytes, like String.compareTo.
+	 */
+	static int compareBytes(byte[] a, int aOff, int aLen, byte[] b, int bOff, int bLen) {
+		int n = Math.min(aLen, bLen);
+		for (int i = 0; i < n; i++) {
+			int d = (a[aOff + i] & 0xFF) - (b[bOff + i] & 0xFF);
+			if (d != 0)
+				return d;
+		}
+		return aLen - bLen;
+	}
+
+	/**
+	 * @return the index, relative to aOff, of the first occurrence of the
+	 *   bLen bytes of b at bOff in the aLen bytes of a at aOff, or -1
+	 */
+	private static int indexOf(byte[] a, int aOff, int aLen, byte[] b, int bOff, int bLen) {
+		if (bLen == 0)
+			return 0;
+		byte first = b[bOff];
+		for (int i = 0; i <= aLen - bLen; i++) {
+			if (a[aOff + i] != first)
+				continue;
+			int j = 1;
+			while (j < bLen && a[aOff + i + j] == b[bOff + j])
+				j++;
+			if (j == bLen)
+				return i;
+		}
+		return -1;
+	}
+
 	/**
 	 * @return the Type for this Field
 	 */
@@ -58,6 +58,14 @@ public class StringHistogram {
         hist.addValue(val);
     }
 
+    /**
+     * Adds the values counted by another StringHistogram with the same
+     * number of buckets to this one.
+     */
+    void merge(StringHistogram other) {
+        hist.merge(other.hist);
+    }
+
     /** Estimate the selectivity (as a double between 0 and 1) of the specified predicate over the specified string 
         @param op The operation being applied
         @param s The string to apply op to 
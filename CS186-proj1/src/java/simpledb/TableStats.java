@@ -97,13 +97,16 @@ public class TableStats {
         this.ioCostPerPage = ioCostPerPage;
         tupleCount = 0;
 
-        HeapFile file = (HeapFile) Database.getCatalog().getDbFile(tableid);
-        DbFileIterator tuples = file.iterator(new TransactionId());
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        DbFileIterator<Tuple> tuples = file.iterator(new TransactionId());
 
         int numFields = file.getTupleDesc().numFields();
 
         int[] minInteger = new int[numFields];
         int[] maxInteger = new int[numFields];
+        // the range of each long and double field
+        double[] minWide = new double[numFields];
+        double[] maxWide = new double[numFields];
 
         try {
             tuples.open();
@@ -117,6 +120,12 @@ public class TableStats {
                                 minInteger[i] = ((IntField) t.getField(i)).getValue();
                             if (maxInteger[i] < ((IntField) t.getField(i)).getValue())
                                 maxInteger[i] = ((IntField) t.getField(i)).getValue();
+                        } else if (t.getField(i).getType() != Type.STRING_TYPE) {
+                            double v = wideValue(t.getField(i));
+                            if (tupleCount == 1 || minWide[i] > v)
+                                minWide[i] = v;
+                            if (tupleCount == 1 || maxWide[i] < v)
+                                maxWide[i] = v;
                         }
                     }
                 }
@@ -133,6 +142,8 @@ public class TableStats {
             if (file.getTupleDesc().getFieldType(i) == Type.INT_TYPE) {
                 IntHistogram gram = new IntHistogram(NUM_HIST_BINS, minInteger[i], maxInteger[i]);
                 histograms[i] = gram;
+            } else if (file.getTupleDesc().getFieldType(i) != Type.STRING_TYPE) {
+                histograms[i] = new DoubleHistogram(NUM_HIST_BINS, minWide[i], maxWide[i]);
             } else {
                 StringHistogram gram = new StringHistogram(NUM_HIST_BINS);
                 histograms[i] = gram;
@@ -155,6 +166,8 @@ public class TableStats {
                                 StringHistogram gram = (StringHistogram) histograms[i];
                                 gram.addValue(((StringField) t.getField(i)).getValue());
                             }
+                        } else if (histograms[i] instanceof DoubleHistogram) {
+                            ((DoubleHistogram) histograms[i]).addValue(wideValue(t.getField(i)));
                         }
                     }
                 }
@@ -166,6 +179,22 @@ public class TableStats {
         }
     }
 
+    /**
+     * Creates statistics that were computed elsewhere, such as by a
+     * {@link BulkLoader} while it wrote the table, instead of scanning the
+     * table.
+     *
+     * @param histograms an IntHistogram, StringHistogram or DoubleHistogram
+     *            per field
+     */
+    TableStats(int tableid, int ioCostPerPage, int tupleCount, Object[] histograms) {
+        this.tableid = tableid;
+        this.ioCostPerPage = ioCostPerPage;
+        this.tupleCount = tupleCount;
+        this.histograms = histograms;
+        this.avgSelectivities = new double[Predicate.Op.values().length][histograms.length];
+    }
+
     /**
      * Estimates the cost of sequentially scanning the file, given that the cost
      * to read a page is costPerPageIO. You can assume that there are no seeks
@@ -182,7 +211,7 @@ public class TableStats {
 
         // numbers of pages * ioCostPerPage
 
-        return ((HeapFile) Database.getCatalog().getDbFile(tableid)).numPages() * ioCostPerPage;
+        return Database.getCatalog().getDbFile(tableid).numPages() * ioCostPerPage;
     }
 
     /**
@@ -218,6 +247,8 @@ public class TableStats {
                 } else if (histograms[field] instanceof StringHistogram) {
                     StringHistogram stringHistogram = (StringHistogram) histograms[field];
                     return stringHistogram.avgSelectivity();
+                } else if (histograms[field] instanceof DoubleHistogram) {
+                    return ((DoubleHistogram) histograms[field]).avgSelectivity();
                 }
             case NOT_EQUALS:
                 return 1 - avgSelectivity(field, Predicate.Op.EQUALS);
@@ -260,10 +291,19 @@ public class TableStats {
         } else if (histograms[field] instanceof StringHistogram) {
             StringHistogram stringHistogram = (StringHistogram) histograms[field];
             return stringHistogram.estimateSelectivity(op, ((StringField) constant).getValue());
+        } else if (histograms[field] instanceof DoubleHistogram) {
+            return ((DoubleHistogram) histograms[field]).estimateSelectivity(op, wideValue(constant));
         }
         return 1;
     }
 
+    /** @return the value of a long or double field, as a double */
+    static double wideValue(Field f) {
+        if (f instanceof LongField)
+            return ((LongField) f).getValue();
+        return ((DoubleField) f).getValue();
+    }
+
     /**
      * return the total number of tuples in this table
      * */
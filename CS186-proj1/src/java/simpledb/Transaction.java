@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Transaction encapsulates information about the state of
@@ -43,21 +44,30 @@ public class Transaction {
     public void transactionComplete(boolean abort) throws IOException {
 
         if (started) {
-            //write commit / abort records
-            if (abort) {
-                Database.getLogFile().logAbort(tid); //does rollback too
-            } else {
-                //write all the dirty pages for this transaction out
-                Database.getBufferPool().flushPages(tid);
-                Database.getLogFile().logCommit(tid);
-            }
-
+            //the log isn't truncated from the commit record until the
+            //pages are staged, as neither would be left for recovery
+            Lock latch = Database.getBufferPool().commitLatch();
+            latch.lock();
             try {
-
-                Database.getBufferPool().transactionComplete(tid, !abort); // release locks
-
-            } catch (IOException e) {
-                e.printStackTrace();
+                //write commit / abort records
+                if (abort) {
+                    Database.getLogFile().logAbort(tid); //does rollback too
+                } else {
+                    //log the dirty pages for this transaction; the commit
+                    //record forces them, and the page writer writes the pages
+                    Database.getBufferPool().logPages(tid);
+                    Database.getLogFile().logCommit(tid);
+                }
+
+                try {
+
+                    Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            } finally {
+                latch.unlock();
             }
 
             //setting this here means we could possibly write multiple abort records -- OK?
@@ -38,6 +38,25 @@ public class Tuple implements Serializable {
         _tupleDesc = td;
     }
 
+    /**
+     * Creates a tuple with the specified schema that keeps its values in
+     * fields, one entry per field of td. A subclass that keeps its values
+     * some other way passes null, and must then override getField and
+     * setField.
+     *
+     * @param td
+     *            the schema of this tuple.
+     * @param fields
+     *            the values of the tuple, or null
+     */
+    protected Tuple(TupleDesc td, Field[] fields) {
+        if(td == null){
+            throw new NullPointerException();
+        }
+        _field = fields;
+        _tupleDesc = td;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -86,6 +105,63 @@ public class Tuple implements Serializable {
         return _field[i];
     }
 
+    /**
+     * Returns the value of the ith field, which must be an int field.
+     * Subclasses that don't keep Field objects answer without creating one,
+     * so operators should use this in their inner loops rather than
+     * getField.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     * @throws ClassCastException if the field is not an int field
+     */
+    public int getInt(int i) {
+        return ((IntField) getField(i)).getValue();
+    }
+
+    /**
+     * Returns the value of the ith field, which must be a long field.
+     *
+     * @throws ClassCastException if the field is not a long field
+     * @see #getInt
+     */
+    public long getLong(int i) {
+        return ((LongField) getField(i)).getValue();
+    }
+
+    /**
+     * Returns the value of the ith field, which must be a double field.
+     *
+     * @throws ClassCastException if the field is not a double field
+     * @see #getInt
+     */
+    public double getDouble(int i) {
+        return ((DoubleField) getField(i)).getValue();
+    }
+
+    /**
+     * Returns the value of the ith field, which must be a string field.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     * @throws ClassCastException if the field is not a string field
+     * @see #getInt
+     */
+    public String getString(int i) {
+        return ((StringField) getField(i)).getValue();
+    }
+
+    /**
+     * Returns a tuple with the same contents as this one that stays valid
+     * after the iterator that returned this one moves on. Table scans reuse
+     * one tuple for every row, so operators that hold on to tuples (to sort
+     * them, or to insert them a batch at a time) must keep this instead.
+     * Most tuples are never reused, and return themselves.
+     */
+    public Tuple retain() {
+        return this;
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -97,8 +173,8 @@ public class Tuple implements Serializable {
     public String toString() {
         //create variable to build string
         String string = "";
-        for(int i = 0; i < _field.length;i++){
-            string += _field[i] + "\t";
+        for(int i = 0; i < _tupleDesc.numFields();i++){
+            string += getField(i) + "\t";
         }
         string += "\n";
         System.out.printf(string);
@@ -117,12 +193,12 @@ public class Tuple implements Serializable {
 
             @Override
             public boolean hasNext() {
-                return currentIndex < _field.length && _field[currentIndex] != null;
+                return currentIndex < _tupleDesc.numFields() && getField(currentIndex) != null;
             }
 
             @Override
             public Field next() {
-                return _field[currentIndex++];
+                return getField(currentIndex++);
             }
 
             @Override
@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * The 2Q replacement policy (Johnson and Shasha, VLDB 1994), which resists
+ * being flushed by large scans.
+ * <p>
+ * A page read for the first time goes into A1in, a FIFO queue holding
+ * about a quarter of the frames, and accesses while it is there don't
+ * promote it. When a page leaves A1in its id is remembered in A1out, a
+ * queue of page ids only, holding as many ids as half the frames. A page
+ * that is read again while its id is in A1out has shown that it is
+ * reused, and goes into Am, an LRU list holding the rest of the frames.
+ * <p>
+ * Pages touched by a scan go through A1in and out again without
+ * disturbing Am, where the working set of repeatedly used pages lives.
+ * All operations are O(1). All methods synchronize on the policy.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    // the page in each frame
+    private final PageId[] pages;
+    // frames holding pages read once, oldest first
+    private final LinkedHashSet<Integer> a1in = new LinkedHashSet<Integer>();
+    // frames holding reused pages, from least to most recently used
+    private final LinkedHashMap<Integer, Integer> am;
+    // pages recently evicted from a1in, oldest first
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<PageId>();
+    private final int maxIn;
+    private final int maxOut;
+
+    public TwoQueuePolicy(int numFrames) {
+        pages = new PageId[numFrames];
+        am = new LinkedHashMap<Integer, Integer>(numFrames * 2, 0.75f, true);
+        maxIn = Math.max(1, numFrames / 4);
+        maxOut = Math.max(1, numFrames / 2);
+    }
+
+    public synchronized void pageAccessed(int frame) {
+        // moves it to the most recently used end if it's in am; accesses
+        // to pages in a1in are correlated with the first and don't count
+        am.get(frame);
+    }
+
+    public synchronized void pageLoaded(int frame, PageId pid) {
+        pages[frame] = pid;
+        if (a1out.remove(pid))
+            am.put(frame, frame);
+        else
+            a1in.add(frame);
+    }
+
+    /**
+     * Offers the oldest pages of A1in first while it holds more than its
+     * share of the frames, then the least recently used pages of Am, and
+     * then the rest of A1in.
+     */
+    public synchronized int chooseVictim(EvictionTest test) {
+        if (a1in.size() > maxIn) {
+            int frame = evictFromA1in(test);
+            if (frame >= 0)
+                return frame;
+        }
+        Iterator<Integer> it = am.keySet().iterator();
+        while (it.hasNext()) {
+            int frame = it.next();
+            if (test.tryEvict(frame)) {
+                it.remove();
+                pages[frame] = null;
+                return frame;
+            }
+        }
+        return evictFromA1in(test);
+    }
+
+    private int evictFromA1in(EvictionTest test) {
+        Iterator<Integer> it = a1in.iterator();
+        while (it.hasNext()) {
+            int frame = it.next();
+            if (test.tryEvict(frame)) {
+                it.remove();
+                remember(pages[frame]);
+                pages[frame] = null;
+                return frame;
+            }
+        }
+        return -1;
+    }
+
+    /** Adds pid to A1out, forgetting the oldest id if it is full. */
+    private void remember(PageId pid) {
+        a1out.add(pid);
+        if (a1out.size() > maxOut) {
+            Iterator<PageId> it = a1out.iterator();
+            it.next();
+            it.remove();
+        }
+    }
+}
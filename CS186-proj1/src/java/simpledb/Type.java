@@ -3,6 +3,7 @@ package simpledb;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 
 /**
@@ -26,6 +27,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -39,15 +45,83 @@ public enum Type implements Serializable {
                 byte bs[] = new byte[strLen];
                 dis.read(bs);
                 dis.skipBytes(STRING_LEN-strLen);
-                return new StringField(new String(bs), STRING_LEN);
+                return StringField.wrap(bs, STRING_LEN);
             } catch (IOException e) {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = Math.max(0, Math.min(buf.getInt(offset), STRING_LEN));
+            byte bs[] = new byte[strLen];
+            ByteBuffer view = buf.duplicate();
+            view.position(offset + 4);
+            view.get(bs);
+            return StringField.wrap(bs, STRING_LEN);
+        }
+    }, LONG_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new LongField(dis.readLong());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new LongField(buf.getLong(offset));
+        }
+    }, DOUBLE_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DoubleField(dis.readDouble());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new DoubleField(buf.getDouble(offset));
+        }
     };
     
     public static final int STRING_LEN = 128;
 
+    /**
+     * Returns the type with the specified name as it is written in catalog
+     * files and on the command line: <tt>int</tt>, <tt>string</tt>,
+     * <tt>long</tt> or <tt>double</tt>, in any case.
+     *
+     * @return the type, or null if the name isn't one of these
+     */
+    public static Type forName(String name) {
+        name = name.trim().toLowerCase();
+        if (name.equals("int"))
+            return INT_TYPE;
+        if (name.equals("string"))
+            return STRING_TYPE;
+        if (name.equals("long"))
+            return LONG_TYPE;
+        if (name.equals("double"))
+            return DOUBLE_TYPE;
+        return null;
+    }
+
   /**
    * @return the number of bytes required to store a field of this type.
    */
@@ -62,4 +136,13 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object whose contents
+   *   are read from buf at the specified absolute offset, without moving
+   *   the buffer's position.
+   * @param buf The buffer to read from
+   * @param offset The offset of the field's first byte in buf
+   */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
 }
@@ -115,7 +115,7 @@ public class Utility {
 
         HeapPage page = null;
         try {
-            page = new HeapPage(pid, HeapPage.createEmptyPageData());
+            page = new HeapPage(pid, HeapPage.createEmptyPageData(hf.getPageSize()));
         } catch (IOException e) {
             // this should never happen for an empty page; bail;
             throw new RuntimeException("failed to create empty page in HeapFile");
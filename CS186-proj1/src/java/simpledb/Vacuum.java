@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Vacuum compacts a HeapFile while it is in use. Each {@link #step} runs as
+ * its own short transaction: it locks the last page of the file and moves
+ * its tuples into empty slots on earlier pages, or, if the last page is
+ * already empty, removes it from the file. Running steps until no more
+ * progress can be made leaves the live tuples packed at the front of the
+ * file and the file as short as they allow.
+ * <p>
+ * Moved tuples get new RecordIds. Nothing else in SimpleDB holds on to
+ * RecordIds across transactions, so the only other structures to keep in
+ * step are the file's free-space map and the BufferPool, which forgets the
+ * removed pages. The file must be in the catalog.
+ */
+public class Vacuum {
+
+    /** Consecutive aborted steps after which {@link #run} gives up. */
+    public static final int MAX_ABORTS = 3;
+
+    private final HeapFile file;
+    private final int pagesBefore;
+    private int pagesReclaimed = 0;
+    private int tuplesMoved = 0;
+    private int aborts = 0;
+
+    /**
+     * @param file the file to compact, which must be in the catalog
+     */
+    public Vacuum(HeapFile file) {
+        this.file = file;
+        this.pagesBefore = file.numPages();
+    }
+
+    /**
+     * Runs steps until the file can't be compacted any further, or until
+     * {@link #MAX_ABORTS} steps in a row lose a lock conflict.
+     */
+    public void run() throws DbException, IOException {
+        while (step())
+            ;
+    }
+
+    /**
+     * Moves the tuples of the last page of the file to earlier pages, or
+     * removes the last page if it is empty, in one transaction.
+     *
+     * @return true if there may be more to do
+     */
+    public boolean step() throws DbException, IOException {
+        int last = file.numPages() - 1;
+        if (last < 1)
+            return false;
+
+        BufferPool pool = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        HeapPageId lastPid = new HeapPageId(file.getId(), last);
+        boolean progress = false;
+        try {
+            HeapPage src = (HeapPage) pool.getPage(tid, lastPid, Permissions.READ_WRITE);
+            ArrayList<Tuple> live = new ArrayList<Tuple>();
+            Iterator<Tuple> it = src.iterator();
+            while (it.hasNext())
+                live.add(it.next());
+
+            if (live.isEmpty()) {
+                // the page is empty as of the last commit, and holding its
+                // lock keeps anyone from inserting into it until it is gone
+                pool.flushPage(lastPid);
+                if (file.dropLastPage(last)) {
+                    pool.discardPage(lastPid);
+                    pagesReclaimed++;
+                    progress = true;
+                }
+            } else {
+                FreeSpaceMap fsm = file.getFreeSpaceMap();
+                for (int i = fsm.nextFree(0); i >= 0 && i < last && !live.isEmpty(); i = fsm.nextFree(i + 1)) {
+                    HeapPage dst = (HeapPage) pool.getPage(tid, new HeapPageId(file.getId(), i),
+                            Permissions.READ_WRITE);
+                    if (dst.getNumEmptySlots() == 0)
+                        continue;
+                    while (dst.getNumEmptySlots() > 0 && !live.isEmpty()) {
+                        Tuple t = live.remove(live.size() - 1);
+                        dst.insertTuple(copyOf(t));
+                        src.deleteTuple(t);
+                        tuplesMoved++;
+                    }
+                    // both are marked at once, so that if the next page's
+                    // lock aborts us, both are rolled back
+                    dst.markDirty(true, tid);
+                    src.markDirty(true, tid);
+                    fsm.setFree(i, dst.getNumEmptySlots() > 0);
+                    progress = true;
+                }
+            }
+            pool.transactionComplete(tid, true);
+            aborts = 0;
+        } catch (TransactionAbortedException e) {
+            // a foreground transaction holds one of the pages; back off
+            pool.transactionComplete(tid, false);
+            return ++aborts < MAX_ABORTS;
+        }
+        return progress;
+    }
+
+    private static Tuple copyOf(Tuple t) {
+        Tuple copy = new Tuple(t.getTupleDesc());
+        for (int j = 0; j < t.getTupleDesc().numFields(); j++)
+            copy.setField(j, t.getField(j));
+        return copy;
+    }
+
+    /** @return the number of pages the file had when this Vacuum was made */
+    public int getPagesBefore() {
+        return pagesBefore;
+    }
+
+    /** @return the number of pages removed from the end of the file */
+    public int getPagesReclaimed() {
+        return pagesReclaimed;
+    }
+
+    /** @return the number of tuples moved to other pages */
+    public int getTuplesMoved() {
+        return tuplesMoved;
+    }
+
+    /**
+     * @return the drop in the estimated cost of a sequential scan, in the
+     *   units of {@link TableStats#estimateScanCost}
+     */
+    public double getScanCostSaved() {
+        return (double) pagesReclaimed * TableStats.IOCOSTPERPAGE;
+    }
+
+    public String toString() {
+        return pagesBefore + " pages -> " + file.numPages() + " pages (" + pagesReclaimed
+                + " reclaimed, " + tuplesMoved + " tuples moved, scan cost -" + (long) getScanCostSaved() + ")";
+    }
+}